@@ -3,17 +3,16 @@ package com.albatarm.autocomplete;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import org.antlr.v4.parse.ANTLRLexer;
 
 public class AutoCompleter {
 
-    // TODO
-    private static final int DOT_SYMBOL = ANTLRLexer.DOT;
-
     // Full grammar
     private final Map<String, RuleAlternatives> rules;
+    // token names to ids
+    private final Map<String, Integer> tokenMap;
 
     // Rules with a special meaning (e.g. "table_ref").
     private final Set<String> specialRules;
@@ -21,7 +20,12 @@ public class AutoCompleter {
     private final Set<String> ignoredRules;
 
     public AutoCompleter(Map<String, RuleAlternatives> rules, Set<String> specialRules, Set<String> ignoredRules) {
+        this(rules, Collections.emptyMap(), specialRules, ignoredRules);
+    }
+
+    public AutoCompleter(Map<String, RuleAlternatives> rules, Map<String, Integer> tokenMap, Set<String> specialRules, Set<String> ignoredRules) {
         this.rules = new HashMap<>(rules);
+        this.tokenMap = new HashMap<>(tokenMap);
         this.specialRules = new HashSet<>(specialRules);
         this.ignoredRules = new HashSet<>(ignoredRules);
     }
@@ -33,10 +37,28 @@ public class AutoCompleter {
         });
     }
 
+    /**
+     * Compiles the grammar for matching with the given token names (indexed by token type), see {@link CompiledGrammar}.
+     */
+    public CompiledGrammar compile(List<String> tokenNames) {
+        return CompiledGrammar.compile(this, tokenNames);
+    }
+
+    public Set<String> getRuleNames() {
+        return Collections.unmodifiableSet(rules.keySet());
+    }
+
     public RuleAlternatives getRuleAlternatives(String rule) {
         return rules.get(rule);
     }
     
+    /**
+     * Returns the token ids by name, as read from the tokens file of the grammar.
+     */
+    public Map<String, Integer> getTokenMap() {
+        return Collections.unmodifiableMap(tokenMap);
+    }
+
     public Set<String> getIgnoredRules() {
         return Collections.unmodifiableSet(ignoredRules);
     }
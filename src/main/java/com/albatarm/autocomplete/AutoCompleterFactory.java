@@ -69,7 +69,7 @@ public class AutoCompleterFactory {
         LOG.debug("Parsing grammar file: {}", grammarFilename);
         readGrammar(grammarFilename);
         LOG.debug("Ending");
-        return new AutoCompleter(rules, specialRules, ignoredTokens);
+        return new AutoCompleter(rules, tokenMap, specialRules, ignoredTokens);
     }
     
     public void print() {
@@ -1,32 +1,37 @@
 package com.albatarm.autocomplete;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.Deque;
-import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
 
 import org.antlr.v4.runtime.Lexer;
-import org.apache.logging.log4j.LogManager;
-import org.apache.logging.log4j.Logger;
 
 public class AutoCompletionContext<T extends Lexer> {
 
     enum RunState {
         Matching, CollectionPending
     }
-    
-    private static final Logger LOG = LogManager.getLogger(AutoCompletionContext.class);
 
-    private final AutoCompleter rulesHolder;
+    // The flags of a memo entry, the end position is stored above them.
+    private static final int MEMO_IN_PROGRESS = 1;
+    private static final int MEMO_DONE = 2;
+    private static final int MEMO_MATCHED = 4;
+    // The rule left the run state CollectionPending.
+    private static final int MEMO_PENDING = 8;
+    private static final int MEMO_LEFT_RECURSIVE = 16;
+    private static final int MEMO_END_SHIFT = 5;
+
+    private final CompiledGrammar grammar;
 
     //private String typedPart;
-    private final List<String> tokenNames;
-    private final Deque<String> walkStack = new LinkedList<>(); // The rules as they are being matched or collected from.
-    // It's a deque instead of a stack as we need to iterate over it.
+    // The ids of the rules as they are being matched, innermost last, with the token positions they are matched at and
+    // whether their result depends on a left recursive rule which is still growing (see matchRule).
+    private int[] walkStack = new int[16];
+    private int[] walkPositions = new int[16];
+    private boolean[] walkDependent = new boolean[16];
+    private int walkDepth;
 
     private final Scanner<T> scanner;
     private Set<String> completionCandidates = new HashSet<>();
@@ -36,12 +41,18 @@ public class AutoCompletionContext<T extends Lexer> {
 
     private RunState runState;
 
-    private final String rootRule;
+    private final int rootRule;
     
     private String unfinishedToken;
     
-    private final HashSet<String> collected = new HashSet<>();
-    private final HashMap<String, Integer> matchedRules = new HashMap<>();
+    // Per rule id: the run state the collection from it left (so later collections from it continue the same way), null
+    // if nothing was collected from it yet. While a rule is being collected from, it stops a recursive collection.
+    private final RunState[] collected;
+    // The packrat memo, per rule id and token position (rows are allocated on first use): the end position of the match
+    // and the MEMO_* flags, 0 if the rule wasn't matched there yet.
+    private final int[][] memo;
+
+    private MatchTracer tracer = MatchTracer.NONE;
 
     // A hierarchical view of all table references in the code, updated constantly during the match process.
     // Organized as stack to be able to easily remove sets of references when changing nesting level.
@@ -53,12 +64,23 @@ public class AutoCompletionContext<T extends Lexer> {
     //private List<TableReference> references;
     
     public AutoCompletionContext(AutoCompleter rulesHolder, List<String> tokenNames, Scanner<T> scanner, String rootRule, int caretLine, int caretOffset) {
-        this.rulesHolder = rulesHolder;
-        this.rootRule = rootRule;
+        this(rulesHolder.compile(tokenNames), scanner, rootRule, caretLine, caretOffset);
+    }
+
+    /**
+     * Creates a context on an already compiled grammar, which should be shared by all contexts of a language.
+     */
+    public AutoCompletionContext(CompiledGrammar grammar, Scanner<T> scanner, String rootRule, int caretLine, int caretOffset) {
+        this.grammar = grammar;
+        this.rootRule = grammar.getRuleId(rootRule);
+        if (this.rootRule < 0) {
+            throw new IllegalArgumentException("Unknown rule " + rootRule);
+        }
         this.caretLine = caretLine;
         this.caretOffset = caretOffset;
-        this.tokenNames = new ArrayList<>(tokenNames);
         this.scanner = scanner; // Has all the data necessary for scanning already.
+        this.collected = new RunState[grammar.getRuleCount()];
+        this.memo = new int[grammar.getRuleCount()][];
     }
 
     /**
@@ -71,8 +93,8 @@ public class AutoCompletionContext<T extends Lexer> {
      *
      */
     public boolean collectCandidates() {
-    	collected.clear();
-    	matchedRules.clear();
+    	Arrays.fill(collected, null);
+    	Arrays.fill(memo, null);
         runState = RunState.Matching;
 
         if (scanner.getTokenChannel() != 0) {
@@ -92,6 +114,13 @@ public class AutoCompletionContext<T extends Lexer> {
         return matched;
     }
     
+    /**
+     * Sets the tracer to pass the events of the grammar walk to, e.g. a {@link LoggingMatchTracer} for debugging.
+     */
+    public void setTracer(MatchTracer tracer) {
+        this.tracer = tracer;
+    }
+
     public Set<String> getCompletionCandidates() {
         return Collections.unmodifiableSet(completionCandidates);
     }
@@ -100,37 +129,87 @@ public class AutoCompletionContext<T extends Lexer> {
     	return unfinishedToken;
     }
 
-    private boolean matchRule(String rule) {
-    	LOG.debug("matchRule " + rule);
-    	
-    	if (matchedRules.getOrDefault(rule, 0) > 5) {
-    		return true;
-    	}
-    	matchedRules.compute(rule, (r, count) -> count == null ? 0 : count + 1);
+    private boolean matchRule(int rule) {
+    	tracer.ruleMatching(grammar.getRuleName(rule));
     	
         if (runState != RunState.Matching) { // Sanity check - should never happen at this point.
             return false;
         }
 
         if (isTokenEndAfterCaret()) {
-            LOG.debug("matchRule::isTokenEndAfterCaret -> collecting from rule");
         	unfinishedToken = scanner.getTokenText();
             collectFromRule(rule);
             return false;
         }
 
-        walkStack.addFirst(rule);
+        // A rule matched before at this position gives the same result again. If the rule is still being matched here, it
+        // is left recursive: use the current seed (no match at first) and let the outer call grow it.
+        int position = scanner.getPosition();
+        int entry = getMemo(rule, position);
+        if (entry != 0) {
+            if ((entry & MEMO_IN_PROGRESS) != 0) {
+                markLeftRecursion(rule, position);
+            }
+            boolean matched = applyMemo(entry);
+            tracer.ruleMatched(grammar.getRuleName(rule), matched);
+            return matched;
+        }
 
+        if (walkDepth == walkStack.length) {
+            walkStack = Arrays.copyOf(walkStack, walkDepth * 2);
+            walkPositions = Arrays.copyOf(walkPositions, walkDepth * 2);
+            walkDependent = Arrays.copyOf(walkDependent, walkDepth * 2);
+        }
+        walkStack[walkDepth] = rule;
+        walkPositions[walkDepth] = position;
+        walkDependent[walkDepth] = false;
+        walkDepth++;
+
+        setMemo(rule, position, MEMO_IN_PROGRESS | position << MEMO_END_SHIFT);
+        int result = toMemo(matchAlternatives(rule));
+        if ((getMemo(rule, position) & MEMO_LEFT_RECURSIVE) != 0) {
+            // Grow the seed: match again with the last result as the result of the recursive call, as long as that gets
+            // any further.
+            while (true) {
+                setMemo(rule, position, MEMO_IN_PROGRESS | MEMO_LEFT_RECURSIVE | result);
+                scanner.seek(position);
+                runState = RunState.Matching;
+                int next = toMemo(matchAlternatives(rule));
+                if (next >>> MEMO_END_SHIFT <= result >>> MEMO_END_SHIFT) {
+                    break;
+                }
+                result = next;
+            }
+            applyMemo(result);
+        }
+
+        walkDepth--;
+        // A rule called by a growing left recursive rule at the same position must be matched again with the next seed.
+        setMemo(rule, position, walkDependent[walkDepth] ? 0 : MEMO_DONE | result);
+
+        boolean matchedAtLeastOnce = (result & MEMO_MATCHED) != 0;
+        tracer.ruleMatched(grammar.getRuleName(rule), matchedAtLeastOnce);
+        
+        return matchedAtLeastOnce;
+    }
+
+    /**
+     * Matches the alternatives of the given rule at the current position. Leaves the scanner at the end of the longest
+     * match and returns true if any alternative matched.
+     */
+    private boolean matchAlternatives(int rule) {
         int highestTokenIndex = 0;
         RunState resultState = runState;
         boolean matchedAtLeastOnce = false;
 
         // The longest match wins.
-        RuleAlternatives alts = rulesHolder.getRuleAlternatives(rule);
-        if (alts.isOptimized()) {
+        if (!grammar.isDefined(rule)) {
+            throw new IllegalStateException("Unknown rule " + grammar.getRuleName(rule));
+        }
+        if (grammar.isOptimized(rule)) {
             // In the optimized case we have neither predicates nor sequences.
             // We match a single terminal only, out of a set of alternative terminals.
-            if (alts.getTokens().contains(scanner.getTokenType())) {
+            if (grammar.ruleContainsToken(rule, scanner.getTokenType())) {
                 matchedAtLeastOnce = true;
                 scanner.next(true);
                 if (isTokenEndAfterCaret()) {
@@ -140,8 +219,8 @@ public class AutoCompletionContext<T extends Lexer> {
             }
         } else {
             boolean canSeek = false;
-            LOG.debug(() -> "   to match alternatives count = " + alts.getSequences().size());
-            for (GrammarSequence alt : alts.getSequences()) {
+            // Only the alternatives which can start with the current token (or match nothing) need a try.
+            for (int alt : grammar.getRuleSequences(rule, scanner.getTokenType())) {
                 // When attempting to match one alt out of a list pick the one with the longest match.
                 // Reset the run state each time to have the base matching done first (in case a previous alt did collect).
                 int marker = scanner.getPosition();
@@ -167,13 +246,50 @@ public class AutoCompletionContext<T extends Lexer> {
         }
 
         runState = resultState;
-        walkStack.removeFirst();
-
-        LOG.debug("   return " + matchedAtLeastOnce);
-        
         return matchedAtLeastOnce;
     }
 
+    private int getMemo(int rule, int position) {
+        int[] row = memo[rule];
+        return row == null ? 0 : row[position];
+    }
+
+    private void setMemo(int rule, int position, int entry) {
+        if (memo[rule] == null) {
+            memo[rule] = new int[scanner.getTokenCount()];
+        }
+        memo[rule][position] = entry;
+    }
+
+    /**
+     * Encodes the state after matching a rule (the scanner position and the run state) with the given result.
+     */
+    private int toMemo(boolean matched) {
+        return scanner.getPosition() << MEMO_END_SHIFT
+                | (matched ? MEMO_MATCHED : 0)
+                | (runState == RunState.CollectionPending ? MEMO_PENDING : 0);
+    }
+
+    /**
+     * Restores the state after matching a rule from the given memo entry and returns whether it matched.
+     */
+    private boolean applyMemo(int entry) {
+        scanner.seek(entry >>> MEMO_END_SHIFT);
+        runState = (entry & MEMO_PENDING) != 0 ? RunState.CollectionPending : RunState.Matching;
+        return (entry & MEMO_MATCHED) != 0;
+    }
+
+    /**
+     * Marks the given rule, which is being matched at the given position, as left recursive. The rules called in between
+     * (all at the same position) depend on its seed, so their results are not memoized.
+     */
+    private void markLeftRecursion(int rule, int position) {
+        setMemo(rule, position, getMemo(rule, position) | MEMO_LEFT_RECURSIVE);
+        for (int i = walkDepth - 1; i >= 0 && !(walkStack[i] == rule && walkPositions[i] == position); i--) {
+            walkDependent[i] = true;
+        }
+    }
+
     private boolean isTokenEndAfterCaret() {
         if (scanner.isType(T.EOF)) {
             return true;
@@ -201,27 +317,22 @@ public class AutoCompletionContext<T extends Lexer> {
         return result;
     }
 
-    private boolean matchAlternative(GrammarSequence sequence) {
-    	LOG.debug("matchAlternative " + sequence);
+    private boolean matchAlternative(int alt) {
+        GrammarSequence sequence = grammar.getSequence(alt);
+    	tracer.alternativeMatching(sequence);
         // An empty sequence per se matches anything without consuming input.
-        if (sequence.getNodes().isEmpty()) {
+        if (sequence.isEmpty()) {
             return true;
         }
 
         int i = 0;
-        LOG.debug("matchAlternative(1 start)");
         while (true) {
-        	LOG.debug("matchAlternative(1)");
             // Set to true if the current node allows multiple occurrences and was matched at least once.
             boolean matchedLoop = false;
             // Skip any optional nodes if they don't match the current input.
             boolean matched;
-            GrammarNode node;
-            LOG.debug("matchAlternative(2 start)");
             do {
-            	LOG.debug("matchAlternative(2)");
-                node = sequence.getNodes().get(i);
-                matched = match(node, scanner.getTokenType());
+                matched = match(alt, i, scanner.getTokenType());
 
                 // If that match call caused the collection to start then don't continue with matching here.
                 if (runState != RunState.Matching) {
@@ -231,28 +342,27 @@ public class AutoCompletionContext<T extends Lexer> {
                         // But since we matched it already at least once we also have to include tokens directly following it.
                         // Hence two calls for collect_from_alternative. The second call might include again already added candidates
                         // but duplicates are sorted out automatically.
-                        if (node.isMultiple()) {
-                            collectFromAlternative(sequence, i);
+                        if (sequence.isMultiple(i)) {
+                            collectFromAlternative(alt, i);
                         }
-                        collectFromAlternative(sequence, i + 1);
+                        collectFromAlternative(alt, i + 1);
                     }
-                    return matched && hasMatchedAllMandatoryTokens(sequence, i); // Return true only if we fully matched the sequence.
+                    return matched && sequence.isOptionalAfter(i); // Return true only if we fully matched the sequence.
                 }
 
-                if (matched && node.isMultiple()) {
+                if (matched && sequence.isMultiple(i)) {
                     matchedLoop = true;
                 }
 
-                if (matched || node.isRequired()) {
+                if (matched || sequence.isRequired(i)) {
                     break;
                 }
 
                 // Did not match an optional part. That's ok, skip this then.
                 ++i;
-                if (i == sequence.getNodes().size()) { // Done with the sequence?
+                if (i == sequence.size()) { // Done with the sequence?
                     return true;
                 }
-                LOG.debug("matchAlternative(2 end)");
             } while (true);
 
             // Important note:
@@ -269,7 +379,7 @@ public class AutoCompletionContext<T extends Lexer> {
             if (matched) {
                 // Load next token if the grammar node is a terminal node.
                 // Otherwise the match() call will have advanced the input position already.
-                if (node.isTerminal()) {
+                if (sequence.isTerminal(i)) {
                     int lastToken = scanner.getTokenType();
                     scanner.next(true);
                     if (isTokenEndAfterCaret()) {
@@ -283,42 +393,40 @@ public class AutoCompletionContext<T extends Lexer> {
                          * completion_candidates.insert(*iterator); run_state = RunStateMatching; return hasMatchedAllMandatoryTokens(sequence, i); } } }
                          */
 
-                        collectFromAlternative(sequence, node.isMultiple() ? i : i + 1);
+                        collectFromAlternative(alt, sequence.isMultiple(i) ? i : i + 1);
 
-                        return hasMatchedAllMandatoryTokens(sequence, i);
+                        return sequence.isOptionalAfter(i);
                     }
                 } else {
                     // Similar here for non-terminals.
                     if (isTokenEndAfterCaret()) {
                         takeReferencesSnapshot();
-                        collectFromAlternative(sequence, node.isMultiple() ? i : i + 1);
+                        collectFromAlternative(alt, sequence.isMultiple(i) ? i : i + 1);
 
-                        return hasMatchedAllMandatoryTokens(sequence, i);
+                        return sequence.isOptionalAfter(i);
                     }
                 }
 
                 // If the current grammar node can be matched multiple times try as often as you can.
                 // This is the greedy approach and default in ANTLR. At the moment we don't support non-greedy matches
                 // as we don't use them in MySQL parser rules.
-                if (!scanner.isType(T.EOF) && node.isMultiple()) {
-                	LOG.debug("matchAlternative(3 start)");
+                if (!scanner.isType(T.EOF) && sequence.isMultiple(i)) {
                     while (true) {
-                    	LOG.debug("matchAlternative(3)");
-                        matched = match(node, scanner.getTokenType());
+                        matched = match(alt, i, scanner.getTokenType());
 
                         // If we get a pending collection state here then it means the match() call caused a candidate collection
                         // to start and reached the end of the node which contains at least one path that allows to match
                         // more tokens after itself.
                         // So, we have to continue collecting candidates after the current node.
                         if (runState == RunState.CollectionPending) {
-                            collectFromAlternative(sequence, i); // No check needed for multiple occurences (always the case here).
-                            collectFromAlternative(sequence, i + 1); // Same double collection as above.
+                            collectFromAlternative(alt, i); // No check needed for multiple occurences (always the case here).
+                            collectFromAlternative(alt, i + 1); // Same double collection as above.
 
                             // If this collection run reached an end it means we are done here.
                             // Otherwise we might still need more candidates to collect because this node or its subnodes are all
                             // optional too.
                             if (runState != RunState.CollectionPending) {
-                                return hasMatchedAllMandatoryTokens(sequence, i);
+                                return sequence.isOptionalAfter(i);
                             }
 
                             if (!matched) {
@@ -329,12 +437,12 @@ public class AutoCompletionContext<T extends Lexer> {
                                 break;
                             }
 
-                            if (node.isTerminal()) {
+                            if (sequence.isTerminal(i)) {
                                 scanner.next(true);
                                 if (isTokenEndAfterCaret()) {
                                     takeReferencesSnapshot();
-                                    collectFromAlternative(sequence, i + 1);
-                                    return hasMatchedAllMandatoryTokens(sequence, i);
+                                    collectFromAlternative(alt, i + 1);
+                                    return sequence.isOptionalAfter(i);
                                 }
                             }
 
@@ -343,7 +451,6 @@ public class AutoCompletionContext<T extends Lexer> {
                             }
                         }
                     }
-                    LOG.debug("matchAlternative(3 end)");
                 }
             } else {
                 // No match, but could be end of a grammar node loop.
@@ -353,11 +460,10 @@ public class AutoCompletionContext<T extends Lexer> {
             }
 
             ++i;
-            if (i == sequence.getNodes().size()) {
+            if (i == sequence.size()) {
                 break;
             }
         }
-        LOG.debug("matchAlternative(1 end)");
         return true;
     }
 
@@ -366,75 +472,65 @@ public class AutoCompletionContext<T extends Lexer> {
     }
 
     /**
-     * Returns true if the given input token matches the given grammar node. This may involve recursive rule matching.
+     * Returns true if the given input token matches the node at the given index of the sequence. This may
+     * involve recursive rule matching.
      */
-    private boolean match(GrammarNode node, int tokenType) {
-        if (node.isTerminal()) {
-            return (node.getTokenRef() == tokenType) || (node.isAny() && !scanner.isType(T.EOF));
+    private boolean match(int alt, int index, int tokenType) {
+        GrammarSequence sequence = grammar.getSequence(alt);
+        if (sequence.isTerminal(index)) {
+            return (sequence.getTokenRef(index) == tokenType) || (sequence.isAny(index) && !scanner.isType(T.EOF));
         } else {
-            return matchRule(node.getRuleRef());
-        }
-    }
-
-    /**
-     * Returns true if the given index is at the end of the sequence or at a point where only optional parts follow.
-     */
-    private boolean hasMatchedAllMandatoryTokens(GrammarSequence sequence, int index) {
-        if (index + 1 == sequence.getNodes().size()) {
-            return true;
+            return matchRule(grammar.getRuleRef(alt, index));
         }
-        for (GrammarNode node : sequence.getNodes()) {
-            if (node.isRequired()) {
-                return false;
-            }
-        }
-        return true;
     }
 
     /**
      * Collects possibly reachable tokens from all alternatives in the given rule.
      */
-    private void collectFromRule(String rule) {
-    	LOG.debug("collectFromRule " + rule);
-    	if (collected.contains(rule)) {
-    		LOG.debug("   already connected");
+    private void collectFromRule(int rule) {
+    	boolean alreadyCollected = collected[rule] != null;
+    	tracer.ruleCollecting(grammar.getRuleName(rule), alreadyCollected);
+    	if (alreadyCollected) {
+    		runState = collected[rule];
     		return;
     	}
-    	collected.add(rule);
-    	
+    	collected[rule] = RunState.Matching;
+    	collectFromRuleAlternatives(rule);
+    	collected[rule] = runState;
+    }
+
+    private void collectFromRuleAlternatives(int rule) {
+
         // Don't go deeper if we have one of the special or ignored rules.
-        if (rulesHolder.getSpecialRules().contains(rule)) {
-            completionCandidates.add(rule);
+        if (grammar.isSpecial(rule)) {
+            completionCandidates.add(grammar.getRuleName(rule));
             runState = RunState.Matching;
             return;
         }
 
         // Don't collect anything from an ignored rule.
-        if (rulesHolder.getIgnoredRules().contains(rule)) {
+        if (grammar.isIgnored(rule)) {
             runState = RunState.Matching;
             return;
         }
 
         // Any other rule goes here.
         RunState combinedState = RunState.Matching;
-        RuleAlternatives alts = rulesHolder.getRuleAlternatives(rule);
-        if (alts == null) {
-        	throw new IllegalStateException("Unknown rule " + rule);
+        if (!grammar.isDefined(rule)) {
+        	throw new IllegalStateException("Unknown rule " + grammar.getRuleName(rule));
         }
-        if (alts.isOptimized()) {
+        if (grammar.isOptimized(rule)) {
             // Insert only tokens we are interested in.
-            for (int i : alts.getTokens()) {
-                String tokenRef = tokenNames.get(i);
-                boolean ignored = rulesHolder.getIgnoredRules().contains(tokenRef);
-                if (!ignored) {
-                    completionCandidates.add(tokenRef);
+            for (int i : grammar.getRuleTokens(rule)) {
+                if (!grammar.isIgnoredToken(i)) {
+                    completionCandidates.add(grammar.getTokenName(i));
                 }
             }
 
             runState = RunState.Matching;
             return;
         } else {
-            for (GrammarSequence seq : alts.getSequences()) {
+            for (int seq : grammar.getRuleSequences(rule)) {
                 // First run a predicate check if this alt can be considered at all.
                 /*
                  * if ((i->min_version > server_version) || (server_version > i->max_version)) continue;
@@ -457,34 +553,33 @@ public class AutoCompletionContext<T extends Lexer> {
      * Collects all tokens that can be reached in the sequence from the given start point. There can be more than one if there are optional rules. Returns true
      * if the sequence between the starting point and the end consists only of optional tokens or there aren't any at all.
      */
-    private void collectFromAlternative(GrammarSequence sequence, int startIndex) {
-    	LOG.debug("collectFromAlternative " + sequence + " from " + startIndex);
-        for (int i = startIndex; i < sequence.getNodes().size(); ++i) {
-            GrammarNode node = sequence.getNodes().get(i);
-            if (node.isTerminal() && node.getTokenRef() == T.EOF) {
+    private void collectFromAlternative(int alt, int startIndex) {
+        GrammarSequence sequence = grammar.getSequence(alt);
+    	tracer.alternativeCollecting(sequence, startIndex);
+        for (int i = startIndex; i < sequence.size(); ++i) {
+            if (sequence.isTerminal(i) && sequence.getTokenRef(i) == T.EOF) {
                 runState = RunState.Matching;
                 break;
             }
 
-            if (node.isTerminal()) {
+            if (sequence.isTerminal(i)) {
                 // Insert only tokens we are interested in.
-                String tokenRef = tokenNames.get(node.getTokenRef());
-                boolean ignored = rulesHolder.getIgnoredRules().contains(tokenRef);
+                String tokenRef = grammar.getTokenName(sequence.getTokenRef(i));
+                boolean ignored = grammar.isIgnoredToken(sequence.getTokenRef(i));
                 boolean exists = completionCandidates.contains(tokenRef);
                 if (!ignored && !exists) {
                     completionCandidates.add(tokenRef);
                 }
-                if (node.isRequired()) {
+                if (sequence.isRequired(i)) {
                     // Also collect following tokens into this candidate, until we find the end of the sequence
                     // or a token that is either not required or can appear multiple times.
                     String tokenRefs = tokenRef;
-                    if (!ignored && !node.isMultiple()) {
-                        while (++i < sequence.getNodes().size()) {
-                            GrammarNode node2 = sequence.getNodes().get(i);
-                            if (!node2.isTerminal() || !node2.isRequired() || node2.isMultiple()) {
+                    if (!ignored && !sequence.isMultiple(i)) {
+                        while (++i < sequence.size()) {
+                            if (!sequence.isTerminal(i) || !sequence.isRequired(i) || sequence.isMultiple(i)) {
                                 break;
                             }
-                            tokenRefs += " " + tokenNames.get(node2.getTokenRef());
+                            tokenRefs += " " + grammar.getTokenName(sequence.getTokenRef(i));
                         }
 
                         if (tokenRefs.length() > tokenRef.length()) {
@@ -502,8 +597,8 @@ public class AutoCompletionContext<T extends Lexer> {
                     return;
                 }
             } else {
-                collectFromRule(node.getRuleRef());
-                if (node.isRequired() && runState != RunState.CollectionPending) {
+                collectFromRule(grammar.getRuleRef(alt, i));
+                if (sequence.isRequired(i) && runState != RunState.CollectionPending) {
                     return;
                 }
             }
@@ -0,0 +1,277 @@
+package com.albatarm.autocomplete;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import org.antlr.v4.runtime.Token;
+
+// The model of an AutoCompleter compiled for matching with a given token vocabulary. Rules and sequences get dense ids,
+// rule references are resolved to rule ids and the special and ignored rules and tokens become flags, so matching looks
+// everything up by index and never hashes a string. Rules which are referenced but not defined get an id too (without
+// alternatives), they only fail when they are actually reached.
+// The FIRST sets and nullable flags of the rules and sequences give a dispatch table per rule: for each lookahead token
+// only the alternatives which can match there are tried.
+// Immutable, it can be shared by any number of AutoCompletionContexts.
+public final class CompiledGrammar {
+
+    private final String[] ruleNames;
+    private final Map<String, Integer> ruleIds;
+    // Per rule: whether it is defined and optimized, the tokens of an optimized rule (as list and as set, bit
+    // token - EOF) and the ids of the sequences of the others.
+    private final boolean[] definedRules;
+    private final boolean[] optimizedRules;
+    private final int[][] ruleTokens;
+    private final BitSet[] ruleTokenSets;
+    private final int[][] ruleSequences;
+    // Per rule which isn't optimized and lookahead token (offset by EOF): the ids of the sequences which can match there.
+    private final int[][][] ruleDispatch;
+    private final boolean[] specialRules;
+    private final boolean[] ignoredRules;
+
+    // Per sequence: the sequence and the id of the rule referenced by each node (-1 for terminals).
+    private final GrammarSequence[] sequences;
+    private final int[][] sequenceRuleRefs;
+
+    // Per token type: the name to collect and whether it is ignored.
+    private final String[] tokenNames;
+    private final boolean[] ignoredTokens;
+
+    private CompiledGrammar(AutoCompleter completer, List<String> tokenNames) {
+        // Defined rules first (in name order, for stable ids), then the ones only referenced.
+        List<String> names = new ArrayList<>(new TreeSet<>(completer.getRuleNames()));
+        this.ruleIds = new HashMap<>();
+        names.forEach(name -> ruleIds.put(name, ruleIds.size()));
+        List<GrammarSequence> sequenceList = new ArrayList<>();
+        List<int[]> ruleRefList = new ArrayList<>();
+        int definedCount = names.size();
+        this.ruleSequences = new int[definedCount][];
+        for (int rule = 0; rule < definedCount; rule++) {
+            List<GrammarSequence> alts = completer.getRuleAlternatives(names.get(rule)).getSequences();
+            ruleSequences[rule] = new int[alts.size()];
+            for (int i = 0; i < alts.size(); i++) {
+                GrammarSequence sequence = alts.get(i);
+                int[] refs = new int[sequence.size()];
+                for (int j = 0; j < refs.length; j++) {
+                    refs[j] = sequence.isTerminal(j) ? -1 : ruleIds.computeIfAbsent(sequence.getRuleRef(j), name -> {
+                        names.add(name);
+                        return names.size() - 1;
+                    });
+                }
+                ruleSequences[rule][i] = sequenceList.size();
+                sequenceList.add(sequence);
+                ruleRefList.add(refs);
+            }
+        }
+        this.sequences = sequenceList.toArray(new GrammarSequence[0]);
+        this.sequenceRuleRefs = ruleRefList.toArray(new int[0][]);
+
+        int ruleCount = names.size();
+        this.ruleNames = names.toArray(new String[0]);
+        this.definedRules = new boolean[ruleCount];
+        this.optimizedRules = new boolean[ruleCount];
+        this.ruleTokens = new int[ruleCount][];
+        this.ruleTokenSets = new BitSet[ruleCount];
+        this.specialRules = new boolean[ruleCount];
+        this.ignoredRules = new boolean[ruleCount];
+        for (int rule = 0; rule < ruleCount; rule++) {
+            definedRules[rule] = rule < definedCount;
+            specialRules[rule] = completer.getSpecialRules().contains(ruleNames[rule]);
+            ignoredRules[rule] = completer.getIgnoredRules().contains(ruleNames[rule]);
+            if (definedRules[rule] && completer.getRuleAlternatives(ruleNames[rule]).isOptimized()) {
+                optimizedRules[rule] = true;
+                ruleTokens[rule] = completer.getRuleAlternatives(ruleNames[rule]).getTokens().stream().mapToInt(Integer::intValue).sorted().toArray();
+                ruleTokenSets[rule] = new BitSet();
+                for (int token : ruleTokens[rule]) {
+                    ruleTokenSets[rule].set(token - Token.EOF);
+                }
+            }
+        }
+
+        this.tokenNames = tokenNames.toArray(new String[0]);
+        this.ignoredTokens = new boolean[this.tokenNames.length];
+        for (int token = 0; token < ignoredTokens.length; token++) {
+            ignoredTokens[token] = completer.getIgnoredRules().contains(this.tokenNames[token]);
+        }
+        this.ruleDispatch = buildDispatchTables();
+    }
+
+    /**
+     * Computes the FIRST sets (bit token - EOF, plus whether they start with a wildcard) and the nullable flags of all rules
+     * and sequences, up to a fixed point. Then builds the dispatch tables, which list per lookahead token the sequences
+     * whose FIRST set contains it and those which can match without consuming anything. Identical lists are shared.
+     */
+    private int[][][] buildDispatchTables() {
+        int ruleCount = ruleNames.length;
+        BitSet[] ruleFirst = new BitSet[ruleCount];
+        boolean[] ruleAny = new boolean[ruleCount];
+        boolean[] ruleNullable = new boolean[ruleCount];
+        for (int rule = 0; rule < ruleCount; rule++) {
+            ruleFirst[rule] = new BitSet();
+            if (!definedRules[rule]) {
+                // Try an unknown rule anywhere, so that it fails as soon as it is reached.
+                ruleAny[rule] = true;
+                ruleNullable[rule] = true;
+            } else if (optimizedRules[rule]) {
+                ruleFirst[rule].or(ruleTokenSets[rule]);
+            }
+        }
+        BitSet[] sequenceFirst = new BitSet[sequences.length];
+        boolean[] sequenceAny = new boolean[sequences.length];
+        boolean[] sequenceNullable = new boolean[sequences.length];
+        for (int seq = 0; seq < sequences.length; seq++) {
+            sequenceFirst[seq] = new BitSet();
+        }
+
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int rule = 0; rule < ruleCount; rule++) {
+                if (!definedRules[rule] || optimizedRules[rule]) {
+                    continue;
+                }
+                for (int seq : ruleSequences[rule]) {
+                    // The nodes up to the first one which must consume a token.
+                    GrammarSequence sequence = sequences[seq];
+                    boolean nullable = true;
+                    for (int i = 0; i < sequence.size() && nullable; i++) {
+                        if (sequence.isTerminal(i)) {
+                            if (sequence.isAny(i)) {
+                                sequenceAny[seq] = true;
+                            } else {
+                                sequenceFirst[seq].set(sequence.getTokenRef(i) - Token.EOF);
+                            }
+                            nullable = !sequence.isRequired(i);
+                        } else {
+                            int ref = sequenceRuleRefs[seq][i];
+                            sequenceFirst[seq].or(ruleFirst[ref]);
+                            sequenceAny[seq] |= ruleAny[ref];
+                            nullable = !sequence.isRequired(i) || ruleNullable[ref];
+                        }
+                    }
+                    sequenceNullable[seq] = nullable;
+
+                    int cardinality = ruleFirst[rule].cardinality();
+                    ruleFirst[rule].or(sequenceFirst[seq]);
+                    if (ruleFirst[rule].cardinality() != cardinality
+                            || sequenceAny[seq] && !ruleAny[rule]
+                            || sequenceNullable[seq] && !ruleNullable[rule]) {
+                        ruleAny[rule] |= sequenceAny[seq];
+                        ruleNullable[rule] |= sequenceNullable[seq];
+                        changed = true;
+                    }
+                }
+            }
+        }
+
+        // Index 0 is EOF, which a wildcard doesn't match.
+        int tokenCount = tokenNames.length - Token.EOF;
+        Map<List<Integer>, int[]> shared = new HashMap<>();
+        int[][][] dispatch = new int[ruleCount][][];
+        for (int rule = 0; rule < ruleCount; rule++) {
+            if (!definedRules[rule] || optimizedRules[rule]) {
+                continue;
+            }
+            dispatch[rule] = new int[tokenCount][];
+            for (int index = 0; index < tokenCount; index++) {
+                List<Integer> alts = new ArrayList<>();
+                for (int seq : ruleSequences[rule]) {
+                    if (sequenceNullable[seq] || sequenceFirst[seq].get(index) || sequenceAny[seq] && index > 0) {
+                        alts.add(seq);
+                    }
+                }
+                dispatch[rule][index] = shared.computeIfAbsent(alts, list -> list.stream().mapToInt(Integer::intValue).toArray());
+            }
+        }
+        return dispatch;
+    }
+
+    /**
+     * Compiles the model of the given completer for the given token names (indexed by token type).
+     */
+    public static CompiledGrammar compile(AutoCompleter completer, List<String> tokenNames) {
+        return new CompiledGrammar(completer, tokenNames);
+    }
+
+    public int getRuleCount() {
+        return ruleNames.length;
+    }
+
+    /**
+     * Returns the id of the given rule, -1 if it is unknown.
+     */
+    public int getRuleId(String rule) {
+        return ruleIds.getOrDefault(rule, -1);
+    }
+
+    public String getRuleName(int rule) {
+        return ruleNames[rule];
+    }
+
+    boolean isDefined(int rule) {
+        return definedRules[rule];
+    }
+
+    boolean isOptimized(int rule) {
+        return optimizedRules[rule];
+    }
+
+    /**
+     * Returns the tokens of an optimized rule, in ascending order. Don't modify the array.
+     */
+    int[] getRuleTokens(int rule) {
+        return ruleTokens[rule];
+    }
+
+    boolean ruleContainsToken(int rule, int token) {
+        return ruleTokenSets[rule].get(token - Token.EOF);
+    }
+
+    /**
+     * Returns the sequence ids of a rule which isn't optimized. Don't modify the array.
+     */
+    int[] getRuleSequences(int rule) {
+        return ruleSequences[rule];
+    }
+
+    /**
+     * Returns the ids of those sequences of a rule (which isn't optimized) which can match with the given lookahead token,
+     * in their original order. Don't modify the array.
+     */
+    int[] getRuleSequences(int rule, int token) {
+        int[][] table = ruleDispatch[rule];
+        int index = token - Token.EOF;
+        return index >= 0 && index < table.length ? table[index] : ruleSequences[rule];
+    }
+
+    boolean isSpecial(int rule) {
+        return specialRules[rule];
+    }
+
+    boolean isIgnored(int rule) {
+        return ignoredRules[rule];
+    }
+
+    GrammarSequence getSequence(int sequence) {
+        return sequences[sequence];
+    }
+
+    /**
+     * Returns the id of the rule referenced by the given node of a sequence, -1 for a terminal.
+     */
+    int getRuleRef(int sequence, int node) {
+        return sequenceRuleRefs[sequence][node];
+    }
+
+    String getTokenName(int token) {
+        return tokenNames[token];
+    }
+
+    boolean isIgnoredToken(int token) {
+        return ignoredTokens[token];
+    }
+
+}
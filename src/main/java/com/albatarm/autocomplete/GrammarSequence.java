@@ -4,21 +4,85 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 
+// The nodes of a sequence are also kept flat, as parallel arrays indexed by node position, so the matchers walk a
+// sequence without going through the node objects or allocating anything.
 public class GrammarSequence {
 
+    private static final byte TERMINAL = 1;
+    private static final byte REQUIRED = 2;
+    private static final byte MULTIPLE = 4;
+    private static final byte ANY = 8;
+    // Set when all nodes after this one are optional.
+    private static final byte OPTIONAL_REST = 16;
+
     private final List<GrammarNode> nodes;
-    
+    private final int[] tokenRefs;
+    private final String[] ruleRefs;
+    private final byte[] flags;
+
     public GrammarSequence(List<GrammarNode> nodes) {
-        this.nodes = new ArrayList<>(nodes);
+        this.nodes = Collections.unmodifiableList(new ArrayList<>(nodes));
+        int size = nodes.size();
+        this.tokenRefs = new int[size];
+        this.ruleRefs = new String[size];
+        this.flags = new byte[size];
+        boolean optionalRest = true;
+        for (int i = size - 1; i >= 0; i--) {
+            GrammarNode node = nodes.get(i);
+            tokenRefs[i] = node.getTokenRef();
+            ruleRefs[i] = node.getRuleRef();
+            flags[i] = (byte) ((node.isTerminal() ? TERMINAL : 0) | (node.isRequired() ? REQUIRED : 0)
+                    | (node.isMultiple() ? MULTIPLE : 0) | (node.isAny() ? ANY : 0) | (optionalRest ? OPTIONAL_REST : 0));
+            optionalRest &= !node.isRequired();
+        }
     }
-    
+
     @Override
     public String toString() {
         return "Sequence{" + nodes.toString() + "}";
     }
-    
+
     public List<GrammarNode> getNodes() {
-        return Collections.unmodifiableList(nodes);
+        return nodes;
+    }
+
+    public int size() {
+        return flags.length;
+    }
+
+    public boolean isEmpty() {
+        return flags.length == 0;
+    }
+
+    public boolean isTerminal(int index) {
+        return (flags[index] & TERMINAL) != 0;
+    }
+
+    public boolean isRequired(int index) {
+        return (flags[index] & REQUIRED) != 0;
     }
-    
+
+    public boolean isMultiple(int index) {
+        return (flags[index] & MULTIPLE) != 0;
+    }
+
+    public boolean isAny(int index) {
+        return (flags[index] & ANY) != 0;
+    }
+
+    public int getTokenRef(int index) {
+        return tokenRefs[index];
+    }
+
+    public String getRuleRef(int index) {
+        return ruleRefs[index];
+    }
+
+    /**
+     * Returns true if all nodes after the given one are optional (or there are none).
+     */
+    public boolean isOptionalAfter(int index) {
+        return (flags[index] & OPTIONAL_REST) != 0;
+    }
+
 }
@@ -0,0 +1,230 @@
+package com.albatarm.autocomplete;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.zip.CRC32;
+
+// A binary snapshot of an AutoCompleter: the token map, the special and ignored rules and all rules with their
+// sequences. Loading one doesn't touch the ANTLR tool, so a language can skip parsing its grammar at startup.
+// The format starts with a magic number and a version, snapshots of another version are rejected rather than
+// misread. Then comes a hash of the grammar and tokens files the snapshot was made from, so a snapshot which is out of
+// date with its sources is rejected as well (when they are around to compare). Everything is written in name order,
+// so the same grammar always gives the same bytes.
+public final class GrammarSnapshot {
+
+    private static final int MAGIC = 0x41434753; // "ACGS"
+    // Increment on any change of the format below.
+    public static final int VERSION = 2;
+
+    private static final int TERMINAL = 1;
+    private static final int REQUIRED = 2;
+    private static final int MULTIPLE = 4;
+    private static final int ANY = 8;
+
+    private GrammarSnapshot() {
+    }
+
+    /**
+     * Returns the classpath resource name of the snapshot of the given grammar file, which keeps its path so grammars
+     * of the same name don't collide, e.g. {@code grammars/src/main/antlr4/Calc.bin} for
+     * {@code src/main/antlr4/Calc.g4}.
+     */
+    public static String resourceName(Path grammarFile) {
+        Path path = grammarFile.normalize();
+        if (path.getRoot() != null) {
+            path = path.getRoot().relativize(path);
+        }
+        StringBuilder result = new StringBuilder("grammars");
+        for (Path element : path) {
+            String name = element.toString();
+            result.append('/').append(name.equals("..") ? "_" : name);
+        }
+        int dot = result.lastIndexOf(".");
+        if (dot > result.lastIndexOf("/")) {
+            result.setLength(dot);
+        }
+        return result.append(".bin").toString();
+    }
+
+    /**
+     * Returns a hash of the given grammar and tokens files, or 0 if one of them doesn't exist.
+     */
+    public static long sourceHash(Path grammarFile, Path tokensFile) throws IOException {
+        if (!Files.isRegularFile(grammarFile) || !Files.isRegularFile(tokensFile)) {
+            return 0;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(Files.readAllBytes(grammarFile));
+        crc.update(Files.readAllBytes(tokensFile));
+        // Never 0, which stands for unknown sources.
+        return crc.getValue() | 1L << 32;
+    }
+
+    /**
+     * Loads the snapshot of the given grammar file from the classpath, returns null if there is none. The source hash
+     * is that of the grammar, see {@link #read(InputStream, long)}.
+     */
+    public static AutoCompleter load(ClassLoader loader, Path grammarFile, long sourceHash) throws IOException {
+        try (InputStream input = loader.getResourceAsStream(resourceName(grammarFile))) {
+            return input == null ? null : read(input, sourceHash);
+        }
+    }
+
+    /**
+     * Writes the snapshot of the given completer, made from sources with the given hash (see
+     * {@link #sourceHash(Path, Path)}).
+     */
+    public static void write(AutoCompleter completer, long sourceHash, OutputStream output) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(output));
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeLong(sourceHash);
+
+        Map<String, Integer> tokens = new TreeMap<>(completer.getTokenMap());
+        out.writeInt(tokens.size());
+        for (Map.Entry<String, Integer> token : tokens.entrySet()) {
+            out.writeUTF(token.getKey());
+            out.writeInt(token.getValue());
+        }
+        writeNames(out, completer.getSpecialRules());
+        writeNames(out, completer.getIgnoredRules());
+
+        Set<String> ruleNames = new TreeSet<>(completer.getRuleNames());
+        out.writeInt(ruleNames.size());
+        for (String ruleName : ruleNames) {
+            RuleAlternatives rule = completer.getRuleAlternatives(ruleName);
+            out.writeUTF(ruleName);
+            out.writeBoolean(rule.isOptimized());
+            if (rule.isOptimized()) {
+                int[] ruleTokens = rule.getTokens().stream().mapToInt(Integer::intValue).sorted().toArray();
+                out.writeInt(ruleTokens.length);
+                for (int token : ruleTokens) {
+                    out.writeInt(token);
+                }
+            } else {
+                out.writeInt(rule.getSequences().size());
+                for (GrammarSequence sequence : rule.getSequences()) {
+                    writeSequence(out, sequence);
+                }
+            }
+        }
+        out.flush();
+    }
+
+    private static void writeNames(DataOutputStream out, Set<String> names) throws IOException {
+        out.writeInt(names.size());
+        for (String name : new TreeSet<>(names)) {
+            out.writeUTF(name);
+        }
+    }
+
+    private static void writeSequence(DataOutputStream out, GrammarSequence sequence) throws IOException {
+        out.writeInt(sequence.size());
+        for (int i = 0; i < sequence.size(); i++) {
+            out.writeByte((sequence.isTerminal(i) ? TERMINAL : 0) | (sequence.isRequired(i) ? REQUIRED : 0)
+                    | (sequence.isMultiple(i) ? MULTIPLE : 0) | (sequence.isAny(i) ? ANY : 0));
+            if (sequence.isTerminal(i)) {
+                out.writeInt(sequence.getTokenRef(i));
+            } else {
+                out.writeUTF(sequence.getRuleRef(i));
+            }
+        }
+    }
+
+    /**
+     * Reads a snapshot. Unless the given source hash is 0 (the sources are unknown), the snapshot must have been made
+     * from sources with that hash, otherwise it's out of date and rejected.
+     */
+    public static AutoCompleter read(InputStream input, long sourceHash) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(input));
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a grammar snapshot");
+        }
+        int version = in.readInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported grammar snapshot version " + version + ", expected " + VERSION);
+        }
+        long snapshotHash = in.readLong();
+        if (sourceHash != 0 && snapshotHash != sourceHash) {
+            throw new IOException("The grammar changed since the snapshot was made");
+        }
+
+        int tokenCount = in.readInt();
+        Map<String, Integer> tokens = new HashMap<>();
+        Map<Integer, String> tokenNames = new HashMap<>();
+        for (int i = 0; i < tokenCount; i++) {
+            String name = in.readUTF();
+            int id = in.readInt();
+            tokens.put(name, id);
+            tokenNames.put(id, name);
+        }
+        // Same readable nodes as from a DebugAutoCompleterFactory.
+        TokenNamer namer = tokenNames::get;
+        Set<String> specialRules = readNames(in);
+        Set<String> ignoredRules = readNames(in);
+
+        int ruleCount = in.readInt();
+        Map<String, RuleAlternatives> rules = new HashMap<>();
+        for (int i = 0; i < ruleCount; i++) {
+            String ruleName = in.readUTF();
+            boolean optimized = in.readBoolean();
+            List<GrammarSequence> sequences = new ArrayList<>();
+            Set<Integer> ruleTokens = new HashSet<>();
+            int count = in.readInt();
+            for (int j = 0; j < count; j++) {
+                if (optimized) {
+                    ruleTokens.add(in.readInt());
+                } else {
+                    sequences.add(readSequence(in, namer));
+                }
+            }
+            rules.put(ruleName, new DebugRuleAlternatives(optimized, sequences, ruleTokens, namer));
+        }
+        return new AutoCompleter(rules, tokens, specialRules, ignoredRules);
+    }
+
+    private static Set<String> readNames(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        Set<String> names = new HashSet<>();
+        for (int i = 0; i < count; i++) {
+            names.add(in.readUTF());
+        }
+        return names;
+    }
+
+    private static GrammarSequence readSequence(DataInputStream in, TokenNamer namer) throws IOException {
+        GrammarSequenceBuilder sequence = new GrammarSequenceBuilder();
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            int flags = in.readByte();
+            GrammarNode.Builder node = DebugGrammarNode.builder(namer);
+            node.setTerminal((flags & TERMINAL) != 0);
+            node.setRequired((flags & REQUIRED) != 0);
+            node.setMultiple((flags & MULTIPLE) != 0);
+            node.setAny((flags & ANY) != 0);
+            if ((flags & TERMINAL) != 0) {
+                node.setTokenRef(in.readInt());
+            } else {
+                node.setRuleRef(in.readUTF());
+            }
+            sequence.add(node.build());
+        }
+        return sequence.build();
+    }
+
+}
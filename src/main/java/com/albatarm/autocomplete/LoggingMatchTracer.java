@@ -0,0 +1,41 @@
+package com.albatarm.autocomplete;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * A tracer which logs the rules and alternatives being matched and collected from (at debug level).
+ */
+public class LoggingMatchTracer implements MatchTracer {
+
+    private static final Logger LOG = LogManager.getLogger(LoggingMatchTracer.class);
+
+    @Override
+    public void ruleMatching(String rule) {
+        LOG.debug("matchRule {}", rule);
+    }
+
+    @Override
+    public void ruleMatched(String rule, boolean matched) {
+        LOG.debug("   return {}", matched);
+    }
+
+    @Override
+    public void alternativeMatching(GrammarSequence sequence) {
+        LOG.debug("matchAlternative {}", sequence);
+    }
+
+    @Override
+    public void ruleCollecting(String rule, boolean alreadyCollected) {
+        LOG.debug("collectFromRule {}", rule);
+        if (alreadyCollected) {
+            LOG.debug("   already collected");
+        }
+    }
+
+    @Override
+    public void alternativeCollecting(GrammarSequence sequence, int startIndex) {
+        LOG.debug("collectFromAlternative {} from {}", sequence, startIndex);
+    }
+
+}
@@ -0,0 +1,30 @@
+package com.albatarm.autocomplete;
+
+/**
+ * Hooks into the grammar walk of an {@link AutoCompletionContext}, for debugging. All events do nothing by default, so
+ * with {@link #NONE} (the default) the calls cost nothing.
+ */
+public interface MatchTracer {
+
+    MatchTracer NONE = new MatchTracer() {
+    };
+
+    default void ruleMatching(String rule) {
+    }
+
+    default void ruleMatched(String rule, boolean matched) {
+    }
+
+    default void alternativeMatching(GrammarSequence sequence) {
+    }
+
+    /**
+     * The caret is reached, candidates are collected from the given rule (unless that was done already).
+     */
+    default void ruleCollecting(String rule, boolean alreadyCollected) {
+    }
+
+    default void alternativeCollecting(GrammarSequence sequence, int startIndex) {
+    }
+
+}
@@ -4,7 +4,6 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.NoSuchElementException;
@@ -76,11 +75,15 @@ public class MyAutoCompleteProvider<T extends Lexer> implements AutoCompleteProv
 		}
 		
 		public boolean isEnd() {
-			return position >= sequence.getNodes().size();
+			return position >= sequence.size();
 		}
 		
-		public GrammarNode getCurrentNode() {
-			return sequence.getNodes().get(position);
+		public GrammarSequence getSequence() {
+			return sequence;
+		}
+		
+		public int getPosition() {
+			return position;
 		}
 		
 		public SequencePathItem inc() {
@@ -198,9 +201,10 @@ public class MyAutoCompleteProvider<T extends Lexer> implements AutoCompleteProv
 				paths.add(path.removeLast());
 				changed = true;
 			} else {
-				GrammarNode node = seq.getCurrentNode();
-				PathItem newItem = node.isTerminal() ? new TokenPathItem(node.getTokenRef()) : new RulePathItem(node.getRuleRef());
-				if (node.isRequired()) {
+				GrammarSequence sequence = seq.getSequence();
+				int position = seq.getPosition();
+				PathItem newItem = sequence.isTerminal(position) ? new TokenPathItem(sequence.getTokenRef(position)) : new RulePathItem(sequence.getRuleRef(position));
+				if (sequence.isRequired(position)) {
 					paths.add(path.concat(newItem));
 					changed = true;
 				} else {
@@ -242,15 +246,13 @@ public class MyAutoCompleteProvider<T extends Lexer> implements AutoCompleteProv
 	}
 	
 	private boolean collectFromSequence(GrammarSequence sequence) {
-		Iterator<GrammarNode> it = sequence.getNodes().iterator();
-		while (it.hasNext()) {
-			GrammarNode node = it.next();
-			if (node.isRequired()) {
-				if (node.isTerminal()) {
-					addCandidate(node.getTokenRef());
+		for (int i = 0; i < sequence.size(); i++) {
+			if (sequence.isRequired(i)) {
+				if (sequence.isTerminal(i)) {
+					addCandidate(sequence.getTokenRef(i));
 					return true;
 				} else {
-					if (collectFromRule(node.getRuleRef())) {
+					if (collectFromRule(sequence.getRuleRef(i))) {
 						return true;
 					}
 				}
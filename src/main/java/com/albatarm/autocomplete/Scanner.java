@@ -4,7 +4,6 @@ import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.function.IntPredicate;
 import java.util.stream.Stream;
-import org.antlr.v4.parse.ANTLRLexer;
 import org.antlr.v4.runtime.Lexer;
 
 public class Scanner<T extends Lexer> implements Iterable<Token> {
@@ -50,7 +49,7 @@ public class Scanner<T extends Lexer> implements Iterable<Token> {
         while (true) {
             org.antlr.v4.runtime.Token token = lexer.nextToken();
             tokens.add(token);
-            if (token.getType() == ANTLRLexer.EOF) {
+            if (token.getType() == Lexer.EOF) {
                 break;
             }
         }
@@ -106,6 +105,13 @@ public class Scanner<T extends Lexer> implements Iterable<Token> {
         }
     }
     
+    /**
+     * Returns the number of tokens, including the EOF token.
+     */
+    public int getTokenCount() {
+        return tokens.size();
+    }
+    
     public int getPosition() {
         return tokenIndex;
     }
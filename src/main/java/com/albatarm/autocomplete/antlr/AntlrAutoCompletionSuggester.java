@@ -1,6 +1,5 @@
 package com.albatarm.autocomplete.antlr;
 
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
@@ -15,8 +14,6 @@ import org.antlr.v4.runtime.atn.ATNState;
 import org.antlr.v4.runtime.atn.AtomTransition;
 import org.antlr.v4.runtime.atn.SetTransition;
 import org.antlr.v4.runtime.atn.Transition;
-import org.apache.logging.log4j.LogManager;
-import org.apache.logging.log4j.Logger;
 
 public class AntlrAutoCompletionSuggester {
 	
@@ -48,8 +45,6 @@ public class AntlrAutoCompletionSuggester {
 		
 	}
 	
-	private static final Logger LOG = LogManager.getLogger(AntlrAutoCompletionSuggester.class);
-	
 	private final List<String> ruleNames;
 	private final Vocabulary vocabulary;
 	private final ATN atn;
@@ -72,13 +67,11 @@ public class AntlrAutoCompletionSuggester {
 
 	private void process(ATNState state, MyTokenStream tokens, 
 			Collector collector, ParserStack parserStack) {
-		process(state, tokens, collector, parserStack, new HashSet<>(), Arrays.asList("start"));
+		process(state, tokens, collector, parserStack, new HashSet<>());
 	}
 	
 	private void process(ATNState state, MyTokenStream tokens, 
-			Collector collector, ParserStack parserStack, Set<Integer> alreadyPassed, List<String> history) {
-		//LOG.debug("history size {}", history.size());
-		
+			Collector collector, ParserStack parserStack, Set<Integer> alreadyPassed) {
 		final boolean atCaret = tokens.atCaret();
 		ParserStack.Result stackRes = parserStack.process(state);
 		if (!stackRes.hasError()) {
@@ -86,16 +79,10 @@ public class AntlrAutoCompletionSuggester {
 		}
 		
 		for (Transition transition : state.getTransitions()) {
-			//final String desc = describe(ruleNames, vocabulary, state, transition);
-			String desc = "";
 			if (transition.isEpsilon()) {
 				if (!alreadyPassed.contains(transition.target.stateNumber)) {
 					alreadyPassed.add(transition.target.stateNumber);
-					process(transition.target, tokens, collector, stackRes.getStack(),
-							alreadyPassed, plus(history, desc));
-					/*process(transition.target, tokens, collector, stackRes.getStack(),
-							plus(alreadyPassed, transition.target.stateNumber), plus(history, desc));*/
-							
+					process(transition.target, tokens, collector, stackRes.getStack(), alreadyPassed);
 				}
 			} else if (transition instanceof AtomTransition) {
 				Token nextTokenType = tokens.next();
@@ -105,7 +92,7 @@ public class AntlrAutoCompletionSuggester {
 					}
 				} else {
 					if (nextTokenType.getType() == ((AtomTransition) transition).label) {
-						process(transition.target, tokens.move(), collector, stackRes.getStack(), new HashSet<Integer>(), plus(history, desc));
+						process(transition.target, tokens.move(), collector, stackRes.getStack(), new HashSet<Integer>());
 					}
 				}
 			} else if (transition instanceof SetTransition) {
@@ -117,7 +104,7 @@ public class AntlrAutoCompletionSuggester {
 						}
 					} else {
 						if (nextTokenType.getType() == sym) {
-							process(transition.target, tokens.move(), collector, stackRes.getStack(), new HashSet<>(), plus(history, desc));
+							process(transition.target, tokens.move(), collector, stackRes.getStack(), new HashSet<>());
 						}
 					}
 				});
@@ -127,10 +114,6 @@ public class AntlrAutoCompletionSuggester {
 		}
 	}
 	
-	private String describe(List<String> ruleNames, Vocabulary vocabulary, ATNState s, Transition t) {
-		return String.format("[%d] %s TR %s", s.stateNumber, ATNStates.describe(s), Transitions.describe(t, ruleNames, vocabulary));
-	}
-	
 	private boolean isCompatibleWithStack(ATNState state, ParserStack parserStack) {
 		ParserStack.Result res = parserStack.process(state);
 		if (!res.hasError()) {
@@ -143,19 +126,4 @@ public class AntlrAutoCompletionSuggester {
 		}
 	}
 	
-	
-	
-	
-	private static <E> Set<E> plus(Set<E> set, E value) {
-		HashSet<E> result = new HashSet<>(set);
-		result.add(value);
-		return result;
-	}
-	
-	private static <E> List<E> plus(List<E> list, E value) {
-		ArrayList<E> result = new ArrayList<>(list);
-		result.add(value);
-		return result;
-	}
-	
 }
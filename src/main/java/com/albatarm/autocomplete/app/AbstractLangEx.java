@@ -1,13 +1,14 @@
 package com.albatarm.autocomplete.app;
 
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Arrays;
 import java.util.Set;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 
-import org.antlr.runtime.RecognitionException;
 import org.antlr.v4.runtime.ANTLRInputStream;
 import org.antlr.v4.runtime.CharStream;
 import org.antlr.v4.runtime.Lexer;
@@ -17,16 +18,34 @@ import org.apache.logging.log4j.Logger;
 import com.albatarm.autocomplete.AutoCompleter;
 import com.albatarm.autocomplete.AutoCompleterFactory;
 import com.albatarm.autocomplete.AutoCompletionContext;
+import com.albatarm.autocomplete.CompiledGrammar;
 import com.albatarm.autocomplete.CompletionProposal;
 import com.albatarm.autocomplete.DebugAutoCompleterFactory;
+import com.albatarm.autocomplete.GrammarSnapshot;
 import com.albatarm.autocomplete.MyAutoCompleteProvider;
 import com.albatarm.autocomplete.Scanner;
 
+// A language completed with the ATN of its grammar. The completer is loaded from the grammar snapshot on the classpath
+// (see GrammarSnapshotWriter) and only generated from the grammar file, which needs the ANTLR tool, if there is no
+// snapshot or it was made from other sources. To tell, the grammar and tokens files are read and hashed on every
+// start when they exist (e.g. when running from the project directory).
 public class AbstractLangEx<T extends Lexer> implements LangEx {
 	
 	private static final Logger LOG = LogManager.getLogger(AbstractLangEx.class);
+
+	// The entry point of the ANTLR tool, which is only a provided dependency.
+	private static final String TOOL_CLASS = "org.antlr.v4.Tool";
+
+	/**
+	 * System property to always parse the grammar files, even if there are snapshots on the classpath.
+	 */
+	public static final String IGNORE_SNAPSHOTS = "autocomplete.ignoreSnapshots";
     
+    private final Path grammarFile;
+    // The hash of the grammar and tokens files, 0 if they aren't around (e.g. when running from a jar).
+    private final long sourceHash;
     private final AutoCompleter completer;
+    private final CompiledGrammar grammar;
     private final Set<Integer> separators;
     private final String rootRule;
     private final String[] tokenNames;
@@ -41,15 +60,60 @@ public class AbstractLangEx<T extends Lexer> implements LangEx {
         this.rootRule = rootRule;
         this.tokenNames = tokenNames;
         this.lexerFactory = lexerFactory;
+        this.grammarFile = Paths.get(grammarFile);
+        this.sourceHash = hashSources(this.grammarFile, Paths.get(tokensFile));
+        AutoCompleter snapshot = Boolean.getBoolean(IGNORE_SNAPSHOTS) ? null : loadSnapshot(this.grammarFile);
+        completer = snapshot != null ? snapshot : generate(grammarFile, importDir, tokensFile);
+        grammar = completer.compile(Arrays.asList(tokenNames));
+    }
+
+    private static long hashSources(Path grammarFile, Path tokensFile) {
+        try {
+            return GrammarSnapshot.sourceHash(grammarFile, tokensFile);
+        } catch (IOException e) {
+            LOG.warn("Can't hash the sources of {}: {}", grammarFile, e.getMessage());
+            return 0;
+        }
+    }
+
+    /**
+     * Loads the snapshot of the grammar from the classpath, returns null if there is none or it can't be read. If the
+     * grammar file is around, a snapshot made from another version of it is ignored too.
+     */
+    private AutoCompleter loadSnapshot(Path grammarFile) {
+        try {
+            return GrammarSnapshot.load(getClass().getClassLoader(), grammarFile, sourceHash);
+        } catch (IOException e) {
+            LOG.warn("Ignoring the snapshot of {}: {}", grammarFile, e.getMessage());
+            return null;
+        }
+    }
+
+    // Only this path needs the ANTLR tool (the RecognitionException is not named for the same reason).
+    private AutoCompleter generate(String grammarFile, String importDir, String tokensFile) {
+        if (!isToolAvailable()) {
+            throw new IllegalStateException("The snapshot " + getSnapshotName() + " of " + grammarFile
+                    + (Boolean.getBoolean(IGNORE_SNAPSHOTS) ? " is ignored" : " is missing or out of date")
+                    + ", generating the completer from the grammar needs the ANTLR tool on the classpath");
+        }
         try {
             DebugAutoCompleterFactory factory = new DebugAutoCompleterFactory(importDir == null ? null : Paths.get(importDir));
             configure(factory);
-            completer = factory.generate(Paths.get(grammarFile), Paths.get(tokensFile));
-        } catch (IOException | RecognitionException e) {
+            return factory.generate(Paths.get(grammarFile), Paths.get(tokensFile));
+        } catch (Exception e) {
             throw new IllegalStateException(e);
         }
     }
     
+    private static boolean isToolAvailable() {
+        try {
+            Class.forName(TOOL_CLASS, false, AbstractLangEx.class.getClassLoader());
+            return true;
+        } catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+    
     protected void configure(AutoCompleterFactory factory) {
     }
 
@@ -58,13 +122,27 @@ public class AbstractLangEx<T extends Lexer> implements LangEx {
         return completer;
     }
 
+    /**
+     * Returns the classpath resource name of the snapshot of the grammar.
+     */
+    public String getSnapshotName() {
+        return GrammarSnapshot.resourceName(grammarFile);
+    }
+
+    /**
+     * Writes the snapshot of the grammar, to be loaded from the classpath instead of parsing the grammar file.
+     */
+    public void writeSnapshot(OutputStream output) throws IOException {
+        GrammarSnapshot.write(completer, sourceHash, output);
+    }
+
     @Override
     public AutoCompletionContext<?> compile(String source, Caret caret) {
         ANTLRInputStream input = new ANTLRInputStream(source);
         T lexer = lexerFactory.apply(input);
         Scanner<T> scanner = new Scanner<>(lexer, separators::contains);
         LOG.debug(() -> scanner.stream().map(Object::toString).collect(Collectors.joining(" ")));
-        return new AutoCompletionContext<>(completer, Arrays.asList(tokenNames), scanner, rootRule, caret.getLine(), caret.getOffset());
+        return new AutoCompletionContext<>(grammar, scanner, rootRule, caret.getLine(), caret.getOffset());
     }
     
     @Override
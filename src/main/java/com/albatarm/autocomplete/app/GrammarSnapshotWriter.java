@@ -0,0 +1,43 @@
+package com.albatarm.autocomplete.app;
+
+import java.io.OutputStream;
+import java.lang.reflect.Constructor;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+// Parses the grammars of the given languages and writes their snapshots below the output directory, under their
+// classpath resource names. The build runs it once the classes are compiled, so the jar ships the snapshots and the
+// languages never touch a grammar file at runtime.
+// Usage: GrammarSnapshotWriter <output directory> <AbstractLangEx class>...
+public final class GrammarSnapshotWriter {
+
+    private static final Logger LOG = LogManager.getLogger(GrammarSnapshotWriter.class);
+
+    private GrammarSnapshotWriter() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            throw new IllegalArgumentException("Usage: GrammarSnapshotWriter <output directory> <language class>...");
+        }
+        // The snapshots of a previous build may be on the classpath, they must not be written again.
+        System.setProperty(AbstractLangEx.IGNORE_SNAPSHOTS, "true");
+        Path outputDirectory = Paths.get(args[0]);
+        for (int i = 1; i < args.length; i++) {
+            Constructor<?> constructor = Class.forName(args[i]).getDeclaredConstructor();
+            constructor.setAccessible(true);
+            AbstractLangEx<?> lang = (AbstractLangEx<?>) constructor.newInstance();
+            Path file = outputDirectory.resolve(lang.getSnapshotName());
+            Files.createDirectories(file.getParent());
+            try (OutputStream output = Files.newOutputStream(file)) {
+                lang.writeSnapshot(output);
+            }
+            LOG.info("Wrote {}", file);
+        }
+    }
+
+}
@@ -14,8 +14,8 @@ public class SimpleLang extends AbstractLangEx<SimpleLexer> {
     
     public SimpleLang() {
         super(
-                "src/main/antlr4/com/albatarm/lang/simple.g4",
-                "target/generated-sources/antlr4/simple.tokens",
+                "src/main/antlr4/com/albatarm/lang/Simple.g4",
+                "target/generated-sources/antlr4/Simple.tokens",
                 SEPARATORS,
                 "root",
                 SimpleParser.tokenNames,
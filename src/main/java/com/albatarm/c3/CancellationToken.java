@@ -0,0 +1,17 @@
+package com.albatarm.c3;
+
+// Cancels a running code completion request from another thread, e.g. when the request was superseded by a newer one.
+// The walk stops shortly after and returns the candidates collected so far (flagged as partial).
+public final class CancellationToken {
+
+    private volatile boolean cancelled;
+
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+}
@@ -0,0 +1,159 @@
+package com.albatarm.c3;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.albatarm.c3.collection.IntBitSet;
+import com.albatarm.c3.collection.IntList;
+
+// The candidate changes made by a rule walk running as a fork/join task, in the order the walk made them.
+// A forked walk cannot add candidates directly: the result must not depend on which task finishes first. Instead the
+// walking session replays the log at the point where the sequential walk would have walked the rule.
+//
+// Rule walks which reached the caret are enclosed in BEGIN / END records, so a replay can skip the changes of a walk
+// which the sequential walk would have taken from the shortcut map instead (because another rule walked it before).
+final class CandidateLog {
+
+    static final int PUT_TOKEN = 0; // token, list
+    static final int MERGE_TOKEN = 1; // token, list
+    static final int PUT_RULE = 2; // rule, list
+    static final int BEGIN = 3; // rule, token index, length of the record up to and including the END record
+    static final int END = 4; // rule, token index, reach, number of end positions, end positions
+    static final int ABANDONED = 5; // rule, token index, unused (a BEGIN record of a walk that was stopped)
+    static final int PUT_TOKEN_SET = 6; // set of tokens, set of excluded tokens
+
+    private int[] codes = new int[64];
+    private int size;
+    private final List<IntList> lists = new ArrayList<>();
+    private final List<IntBitSet> sets = new ArrayList<>();
+
+    void putToken(int token, IntList following) {
+        add(PUT_TOKEN, token, lists.size());
+        lists.add(following);
+    }
+
+    void mergeToken(int token, IntList following) {
+        add(MERGE_TOKEN, token, lists.size());
+        lists.add(following);
+    }
+
+    void putTokenSet(IntBitSet tokens, IntBitSet excluded) {
+        add(PUT_TOKEN_SET, sets.size(), sets.size() + 1);
+        sets.add(tokens);
+        sets.add(excluded);
+    }
+
+    void putRule(int rule, IntList path) {
+        add(PUT_RULE, rule, lists.size());
+        lists.add(path);
+    }
+
+    /**
+     * Opens the record of a rule walk, returns its position for {@link #end} or {@link #discard}.
+     */
+    int begin(int rule, int tokenIndex) {
+        int mark = size;
+        add(BEGIN, rule, tokenIndex);
+        add(0);
+        return mark;
+    }
+
+    void end(int mark, int reach, int[] endPositions) {
+        add(END, codes[mark + 1], codes[mark + 2]);
+        add(reach, endPositions.length);
+        for (int position : endPositions) {
+            add(position);
+        }
+        codes[mark + 3] = size - mark;
+    }
+
+    /**
+     * Marks the record of a rule walk which was stopped before it was done. Its changes are kept, but it has no END record.
+     */
+    void abandon(int mark) {
+        codes[mark] = ABANDONED;
+    }
+
+    /**
+     * Drops the record of a rule walk which made no changes.
+     */
+    void discard(int mark) {
+        size = mark;
+    }
+
+    void append(CandidateLog log) {
+        int base = lists.size();
+        lists.addAll(log.lists);
+        int setBase = sets.size();
+        sets.addAll(log.sets);
+        for (int i = 0; i < log.size; ) {
+            int code = log.codes[i];
+            switch (code) {
+                case BEGIN:
+                case ABANDONED:
+                    add(code, log.codes[i + 1], log.codes[i + 2]);
+                    add(log.codes[i + 3]);
+                    i += 4;
+                    break;
+                case END: {
+                    int length = 5 + log.codes[i + 4];
+                    for (int j = 0; j < length; j++) {
+                        add(log.codes[i + j]);
+                    }
+                    i += length;
+                    break;
+                }
+                case PUT_TOKEN_SET:
+                    add(code, setBase + log.codes[i + 1], setBase + log.codes[i + 2]);
+                    i += 3;
+                    break;
+                default:
+                    add(code, log.codes[i + 1], base + log.codes[i + 2]);
+                    i += 3;
+                    break;
+            }
+        }
+    }
+
+    void clear() {
+        size = 0;
+        lists.clear();
+        sets.clear();
+    }
+
+    int size() {
+        return size;
+    }
+
+    int get(int index) {
+        return codes[index];
+    }
+
+    IntList getList(int index) {
+        return lists.get(index);
+    }
+
+    IntBitSet getSet(int index) {
+        return sets.get(index);
+    }
+
+    private void add(int value) {
+        if (size == codes.length) {
+            codes = Arrays.copyOf(codes, size * 2);
+        }
+        codes[size++] = value;
+    }
+
+    private void add(int a, int b) {
+        add(a);
+        add(b);
+    }
+
+    private void add(int a, int b, int c) {
+        add(a);
+        add(b);
+        add(c);
+    }
+
+}
@@ -1,73 +1,255 @@
 package com.albatarm.c3;
 
-import java.util.Collections;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.Map;
 
+import org.antlr.v4.runtime.Token;
 import org.antlr.v4.runtime.Vocabulary;
 
-import com.albatarm.c3.collection.ArrayIntList;
+import com.albatarm.c3.collection.IntBitSet;
 import com.albatarm.c3.collection.IntList;
+import com.albatarm.c3.collection.IntLists;
 
 // All the candidates which have been found. Tokens and rules are separated (both use a numeric value).
 // Token entries include a list of tokens that directly follow them (see also the "following" member in the FollowSetWithPath class).
+// Tokens and rules are kept as sorted int arrays, their lists are immutable and shared with the engine where possible.
+// Names are only looked up when rendering the candidates (see toString).
+// Tokens collected as a whole set (wildcards, NOT_SET transitions) are kept as a bitset without following lists and only
+// expanded when all the tokens are asked for.
 public class Candidates {
 
     public static class Builder {
 
-        private final HashMap<Integer, IntList> tokens = new HashMap<>();
-        private final HashMap<Integer, IntList> rules = new HashMap<>();
+        // The following lists per token type (offset by EPSILON) and the paths per rule index, null if absent.
+        private IntList[] tokens = new IntList[64];
+        private IntList[] rules = new IntList[16];
+        // Tokens without following list, which were added as a set, disjoint from tokens (null if none).
+        private IntBitSet openTokens;
+        private int tokenCount;
+        private int ruleCount;
+        private boolean partial;
+        private CompletionStatistics statistics = CompletionStatistics.EMPTY;
 
         private Builder() {
         }
 
         public IntList getToken(int token) {
-            return tokens.get(token);
+            int index = token - Token.EPSILON;
+            if (index < tokens.length && tokens[index] != null) {
+                return tokens[index];
+            }
+            return openTokens != null && openTokens.contains(token) ? IntLists.empty() : null;
         }
 
+        /**
+         * Adds a token or replaces its following list. The list is copied unless it is immutable.
+         */
         public Builder putToken(int token, IntList list) {
-            tokens.put(token, new ArrayIntList(list));
+            int index = token - Token.EPSILON;
+            if (index >= tokens.length) {
+                tokens = Arrays.copyOf(tokens, Math.max(index + 1, tokens.length * 2));
+            }
+            if (tokens[index] == null) {
+                tokenCount++;
+            }
+            tokens[index] = IntLists.copyOf(list);
+            if (openTokens != null) {
+                openTokens.remove(token);
+            }
+            return this;
+        }
+
+        /**
+         * Adds the given tokens except for the excluded ones (both sets must have the same range), without following
+         * lists. Same as {@link #putToken(int, IntList)} with an empty list for each of them, but the set is only
+         * expanded when the candidates are listed.
+         */
+        public Builder putTokenSet(IntBitSet tokenSet, IntBitSet excluded) {
+            if (openTokens == null) {
+                openTokens = tokenSet.emptyCopy();
+            }
+            for (int index = 0; index < tokens.length; index++) {
+                int token = index + Token.EPSILON;
+                if (tokens[index] != null && tokenSet.contains(token) && !excluded.contains(token)) {
+                    tokens[index] = null;
+                    tokenCount--;
+                }
+            }
+            openTokens.addAllExcept(tokenSet, excluded);
             return this;
         }
 
         public boolean containsToken(int token) {
-            return tokens.containsKey(token);
+            return getToken(token) != null;
         }
 
+        public IntList getRule(int rule) {
+            return rule < rules.length ? rules[rule] : null;
+        }
+
+        /**
+         * Adds a rule or replaces its path. The list is copied unless it is immutable.
+         */
         public Builder putRule(int rule, IntList list) {
-            rules.put(rule, new ArrayIntList(list));
+            if (rule >= rules.length) {
+                rules = Arrays.copyOf(rules, Math.max(rule + 1, rules.length * 2));
+            }
+            if (rules[rule] == null) {
+                ruleCount++;
+            }
+            rules[rule] = IntLists.copyOf(list);
+            return this;
+        }
+
+        public Builder setPartial(boolean partial) {
+            this.partial = partial;
             return this;
         }
 
-        public Map<Integer, IntList> getRules() {
-            return Collections.unmodifiableMap(rules);
+        public Builder setStatistics(CompletionStatistics statistics) {
+            this.statistics = statistics;
+            return this;
         }
 
         public Candidates build() {
-            return new Candidates(tokens, rules);
+            int[] tokenIds = new int[tokenCount];
+            IntList[] following = new IntList[tokenCount];
+            for (int index = 0, i = 0; i < tokenCount; index++) {
+                if (tokens[index] != null) {
+                    tokenIds[i] = index + Token.EPSILON;
+                    following[i++] = tokens[index];
+                }
+            }
+            int[] ruleIds = new int[ruleCount];
+            IntList[] paths = new IntList[ruleCount];
+            for (int rule = 0, i = 0; i < ruleCount; rule++) {
+                if (rules[rule] != null) {
+                    ruleIds[i] = rule;
+                    paths[i++] = rules[rule];
+                }
+            }
+            IntBitSet open = openTokens != null && !openTokens.isEmpty() ? new IntBitSet(openTokens) : null;
+            return new Candidates(tokenIds, following, open, ruleIds, paths, partial, statistics);
         }
 
     }
 
-    private final Map<Integer, IntList> tokens;
-    private final Map<Integer, IntList> rules;
+    private final int[] tokens;
+    private final IntList[] following;
+    // The tokens without following list which were added as a set, disjoint from tokens (null if none).
+    private final IntBitSet openTokens;
+    private final int[] rules;
+    private final IntList[] paths;
+    private final boolean partial;
+    private final CompletionStatistics statistics;
 
     public Candidates(Map<Integer, IntList> tokens, Map<Integer, IntList> rules) {
+        this(tokens, rules, false, CompletionStatistics.EMPTY);
+    }
+
+    public Candidates(Map<Integer, IntList> tokens, Map<Integer, IntList> rules, boolean partial, CompletionStatistics statistics) {
+        this(sortedKeys(tokens), valuesOf(tokens), null, sortedKeys(rules), valuesOf(rules), partial, statistics);
+    }
+
+    private Candidates(int[] tokens, IntList[] following, IntBitSet openTokens, int[] rules, IntList[] paths,
+            boolean partial, CompletionStatistics statistics) {
         this.tokens = tokens;
+        this.following = following;
+        this.openTokens = openTokens;
         this.rules = rules;
+        this.paths = paths;
+        this.partial = partial;
+        this.statistics = statistics;
+    }
+
+    private static int[] sortedKeys(Map<Integer, IntList> map) {
+        return map.keySet().stream().mapToInt(Integer::intValue).sorted().toArray();
+    }
+
+    private static IntList[] valuesOf(Map<Integer, IntList> map) {
+        int[] keys = sortedKeys(map);
+        IntList[] values = new IntList[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            values[i] = IntLists.copyOf(map.get(keys[i]));
+        }
+        return values;
+    }
+
+    /**
+     * Returns the candidate token types, in ascending order.
+     */
+    public int[] getTokens() {
+        if (openTokens == null) {
+            return tokens.clone();
+        }
+        int[] open = openTokens.toArray();
+        int[] result = Arrays.copyOf(tokens, tokens.length + open.length);
+        System.arraycopy(open, 0, result, tokens.length, open.length);
+        Arrays.sort(result);
+        return result;
+    }
+
+    public boolean containsToken(int token) {
+        return Arrays.binarySearch(tokens, token) >= 0 || openTokens != null && openTokens.contains(token);
+    }
+
+    /**
+     * Returns the tokens which directly follow the given candidate token (immutable), null if it is no candidate.
+     */
+    public IntList getFollowing(int token) {
+        int index = Arrays.binarySearch(tokens, token);
+        if (index >= 0) {
+            return following[index];
+        }
+        return openTokens != null && openTokens.contains(token) ? IntLists.empty() : null;
+    }
+
+    /**
+     * Returns the candidate (preferred) rule indexes, in ascending order.
+     */
+    public int[] getRules() {
+        return rules.clone();
+    }
+
+    public boolean containsRule(int rule) {
+        return Arrays.binarySearch(rules, rule) >= 0;
+    }
+
+    /**
+     * Returns the rule path (the rules leading to it) of the given candidate rule (immutable), null if it is no
+     * candidate.
+     */
+    public IntList getRulePath(int rule) {
+        int index = Arrays.binarySearch(rules, rule);
+        return index >= 0 ? paths[index] : null;
+    }
+
+    /**
+     * Tells whether the collection was stopped before the walk was done (by a budget or a cancellation), so that
+     * candidates may be missing.
+     */
+    public boolean isPartial() {
+        return partial;
+    }
+
+    /**
+     * Returns the statistics of the request which collected the candidates.
+     */
+    public CompletionStatistics getStatistics() {
+        return statistics;
     }
 
     public String toString(String[] ruleNames, Vocabulary vocabulary) {
         StringBuilder sb = new StringBuilder();
         sb.append("Candidate rules:\n");
-        rules.forEach((rule, tks) -> {
-            sb.append("   ").append(ruleNames[rule]).append(" => ").append(toString(vocabulary, tks)).append('\n');
-        });
+        for (int i = 0; i < rules.length; i++) {
+            sb.append("   ").append(ruleNames[rules[i]]).append(" => ").append(toString(vocabulary, paths[i])).append('\n');
+        }
 
         sb.append('\n').append("Candidate tokens:\n");
-        tokens.forEach((token, tks) -> {
-            sb.append("   ").append(vocabulary.getSymbolicName(token)).append(" (").append(token).append(") => ").append(toString(vocabulary, tks)).append('\n');
-        });
+        for (int token : getTokens()) {
+            sb.append("   ").append(vocabulary.getSymbolicName(token)).append(" (").append(token).append(") => ").append(toString(vocabulary, getFollowing(token))).append('\n');
+        }
 
         return sb.toString();
     }
@@ -81,7 +263,6 @@ public class Candidates {
             sb.append(vocabulary.getDisplayName(tokens.get(i)));
         }
         return sb.toString();
-        //return tokens.stream().mapToObj(vocabulary::getDisplayName).collect(Collectors.joining(", "));
     }
 
     public static Builder builder() {
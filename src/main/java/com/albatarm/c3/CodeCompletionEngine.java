@@ -0,0 +1,639 @@
+package com.albatarm.c3;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.function.Predicate;
+import java.util.stream.IntStream;
+
+import org.antlr.v4.runtime.Parser;
+import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.Vocabulary;
+import org.antlr.v4.runtime.atn.ATN;
+import org.antlr.v4.runtime.atn.ATNState;
+import org.antlr.v4.runtime.atn.PredicateTransition;
+import org.antlr.v4.runtime.atn.RuleTransition;
+import org.antlr.v4.runtime.atn.Transition;
+import org.antlr.v4.runtime.misc.Interval;
+import org.antlr.v4.runtime.misc.IntervalSet;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.albatarm.c3.collection.ArrayIntList;
+import com.albatarm.c3.collection.IntBitSet;
+import com.albatarm.c3.collection.IntList;
+import com.albatarm.c3.collection.IntLists;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.ImmutableSet;
+
+// The grammar specific, immutable part of the code completion core: the ATN, the vocabulary, the rule names, the
+// tailoring of the result and the follow sets. An engine is built once per grammar (and configuration) and is safe to
+// use from any number of threads, as long as its predicate evaluator is. The actual completion requests run in a
+// CompletionSession (see newSession()), which holds all the per-request state.
+public final class CodeCompletionEngine {
+
+    public static final class Builder {
+
+        private final ATN atn;
+        private final Vocabulary vocabulary;
+        private final String[] ruleNames;
+        private PredicateEvaluator predicateEvaluator = PredicateEvaluator.ALWAYS_TRUE;
+        private PredicateScope defaultPredicateScope = PredicateScope.CONTEXT;
+        private final Map<Integer, PredicateScope> predicateScopes = new HashMap<>();
+        private final Set<Integer> ignoredTokens = new HashSet<>();
+        private final Set<Integer> preferredRules = new HashSet<>();
+        private CompletionListener listener = CompletionListener.NONE;
+
+        private Builder(ATN atn, Vocabulary vocabulary, String[] ruleNames) {
+            this.atn = atn;
+            this.vocabulary = vocabulary;
+            this.ruleNames = ruleNames;
+        }
+
+        public Builder setPredicateEvaluator(PredicateEvaluator predicateEvaluator) {
+            this.predicateEvaluator = Objects.requireNonNull(predicateEvaluator);
+            return this;
+        }
+
+        /**
+         * Sets the scope of all predicates without a scope of their own, see {@link PredicateScope}.
+         */
+        public Builder setPredicateScope(PredicateScope scope) {
+            this.defaultPredicateScope = Objects.requireNonNull(scope);
+            return this;
+        }
+
+        /**
+         * Sets the scope of the predicate with the given index, see {@link PredicateScope}.
+         */
+        public Builder setPredicateScope(int predIndex, PredicateScope scope) {
+            this.predicateScopes.put(predIndex, Objects.requireNonNull(scope));
+            return this;
+        }
+
+        public Builder setIgnoredTokens(int... ignoredTokens) {
+            this.ignoredTokens.clear();
+            for (int token : ignoredTokens) {
+                this.ignoredTokens.add(token);
+            }
+            return this;
+        }
+
+        public Builder setPreferredRules(int... preferredRules) {
+            this.preferredRules.clear();
+            for (int rule : preferredRules) {
+                this.preferredRules.add(rule);
+            }
+            return this;
+        }
+
+        /**
+         * Sets the listener to pass the statistics of every request to.
+         */
+        public Builder setListener(CompletionListener listener) {
+            this.listener = Objects.requireNonNull(listener);
+            return this;
+        }
+
+        public CodeCompletionEngine build() {
+            return new CodeCompletionEngine(this);
+        }
+
+    }
+
+    private static final Logger LOG = LogManager.getLogger(CodeCompletionEngine.class);
+
+    private final ATN atn;
+    private final Vocabulary vocabulary;
+    private final String[] ruleNames;
+    private final PredicateEvaluator predicateEvaluator;
+    // The scope of each predicate (by predicate index), the indexes of those with request scope and the cached results
+    // of those with configuration scope, shared by all sessions (0: unknown, 1: false, 2: true).
+    private final PredicateScope[] predicateScopes;
+    private final int[] requestScopedPredicates;
+    private final AtomicIntegerArray predicateResults;
+
+    // Tailoring of the result.
+    // Tokens which should not appear in the candidates set.
+    private final ImmutableSet<Integer> ignoredTokens;
+    // Rules which replace any candidate token they contain.
+    // This allows to return descriptive rules (e.g. className, instead of ID/identifier).
+    private final ImmutableSet<Integer> preferredRules;
+    // The same as bitsets, for the walk.
+    private final IntBitSet ignoredTokenSet;
+    private final IntBitSet preferredRuleSet;
+    // All user token types, the tokens of a wildcard.
+    private final IntBitSet userTokens;
+
+    private final CompletionListener listener;
+
+    // The tokens matched by a transition (its label, or the complement of it for a NOT_SET transition).
+    private final ConcurrentMap<Transition, IntBitSet> transitionTokens = new ConcurrentHashMap<>();
+    // The chains of single tokens following an ATN state (see getFollowingTokens), per set of ignored tokens (the one of
+    // the engine and those of sessions overriding it) and state number.
+    private final ConcurrentMap<IntBitSet, ConcurrentMap<Integer, IntList>> followingTokens = new ConcurrentHashMap<>();
+
+    // Follow sets per ATN, shared between all engines working on the same grammar. The ATN keys are held weakly and
+    // compared by identity, so the follow sets of a grammar can be collected together with its (unloaded) parser class.
+    private static final LoadingCache<ATN, ConcurrentMap<Integer, FollowSetsHolder>> followSetsByATN = CacheBuilder.newBuilder()
+            .weakKeys()
+            .build(CacheLoader.from(() -> new ConcurrentHashMap<>()));
+
+    // The follow sets of our ATN, per rule start state number. Only those which don't cross any predicate are shared,
+    // those crossing predicates with configuration scope are kept until invalidateConfiguration() is called. Those
+    // crossing other predicates are kept by the session for the current request.
+    private final ConcurrentMap<Integer, FollowSetsHolder> followSetsByState;
+    private final ConcurrentMap<Integer, FollowSetsHolder> configurationFollowSets = new ConcurrentHashMap<>();
+
+    // The keys of the shortcut map: one per rule, except for rules with precedence predicates (left-recursive rules),
+    // which get one per precedence they are called with. The first key of each rule and, for the latter, the
+    // precedences in ascending order (null for the other rules).
+    private final int[] memoKeyBase;
+    private final int[][] rulePrecedences;
+    private final int memoKeyCount;
+
+    private CodeCompletionEngine(Builder builder) {
+        this.atn = builder.atn;
+        this.vocabulary = builder.vocabulary;
+        this.ruleNames = builder.ruleNames.clone();
+        this.predicateEvaluator = builder.predicateEvaluator;
+        this.predicateScopes = new PredicateScope[countPredicates(atn)];
+        for (int i = 0; i < predicateScopes.length; i++) {
+            predicateScopes[i] = builder.predicateScopes.getOrDefault(i, builder.defaultPredicateScope);
+        }
+        this.requestScopedPredicates = IntStream.range(0, predicateScopes.length)
+                .filter(i -> predicateScopes[i] == PredicateScope.REQUEST)
+                .toArray();
+        this.predicateResults = new AtomicIntegerArray(predicateScopes.length);
+        this.ignoredTokens = ImmutableSet.copyOf(builder.ignoredTokens);
+        this.preferredRules = ImmutableSet.copyOf(builder.preferredRules);
+        this.ignoredTokenSet = newTokenSet(builder.ignoredTokens);
+        this.preferredRuleSet = newRuleSet(builder.preferredRules);
+        this.userTokens = newTokenSet(ImmutableSet.of());
+        userTokens.addRange(Token.MIN_USER_TOKEN_TYPE, atn.maxTokenType);
+        this.listener = builder.listener;
+        this.followSetsByState = followSetsByATN.getUnchecked(atn);
+
+        int ruleCount = atn.ruleToStartState.length;
+        this.rulePrecedences = determineRulePrecedences(atn);
+        this.memoKeyBase = new int[ruleCount];
+        int keyCount = 0;
+        for (int rule = 0; rule < ruleCount; rule++) {
+            memoKeyBase[rule] = keyCount;
+            keyCount += rulePrecedences[rule] == null ? 1 : rulePrecedences[rule].length;
+        }
+        this.memoKeyCount = keyCount;
+    }
+
+    public static Builder builder(ATN atn, Vocabulary vocabulary, String[] ruleNames) {
+        return new Builder(atn, vocabulary, ruleNames);
+    }
+
+    /**
+     * Creates a builder for the ATN, vocabulary and rule names of the given parser, which also evaluates the semantic
+     * predicates of the grammar through the parser. That evaluator is neither thread-safe nor given a context (see
+     * {@link PredicateEvaluator#of(Parser)}), set a stateless one for an engine shared between threads.
+     */
+    public static Builder builder(Parser parser) {
+        return builder(parser.getATN(), parser.getVocabulary(), parser.getRuleNames())
+                .setPredicateEvaluator(PredicateEvaluator.of(parser));
+    }
+
+    public ATN getAtn() {
+        return atn;
+    }
+
+    public Vocabulary getVocabulary() {
+        return vocabulary;
+    }
+
+    public String[] getRuleNames() {
+        return ruleNames.clone();
+    }
+
+    public Set<Integer> getIgnoredTokens() {
+        return ignoredTokens;
+    }
+
+    public Set<Integer> getPreferredRules() {
+        return preferredRules;
+    }
+
+    IntBitSet getIgnoredTokenSet() {
+        return ignoredTokenSet;
+    }
+
+    IntBitSet getPreferredRuleSet() {
+        return preferredRuleSet;
+    }
+
+    IntBitSet getUserTokens() {
+        return userTokens;
+    }
+
+    /**
+     * Creates a bitset for the token types of the grammar (from EPSILON to the max token type) with the given tokens.
+     * Tokens outside of that range are left out, they never show up in a walk anyway.
+     */
+    IntBitSet newTokenSet(Iterable<Integer> tokens) {
+        IntBitSet result = new IntBitSet(Token.EPSILON, atn.maxTokenType);
+        for (int token : tokens) {
+            if (result.inRange(token)) {
+                result.add(token);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Creates a bitset for the rule indexes of the grammar with the given rules (again leaving out unknown ones).
+     */
+    IntBitSet newRuleSet(Iterable<Integer> rules) {
+        IntBitSet result = new IntBitSet(0, atn.ruleToStartState.length - 1);
+        for (int rule : rules) {
+            if (result.inRange(rule)) {
+                result.add(rule);
+            }
+        }
+        return result;
+    }
+
+    public CompletionListener getListener() {
+        return listener;
+    }
+
+    /**
+     * Creates the state for one completion request (or a series of requests, made one after another by the same thread).
+     */
+    public CompletionSession newSession() {
+        return new CompletionSession(this);
+    }
+
+    String getRuleName(int ruleIndex) {
+        return ruleNames[ruleIndex];
+    }
+
+    /**
+     * Determines the follow sets for all rules of the ATN, instead of doing that lazily when a rule is first entered.
+     */
+    public void precomputeFollowSets() {
+        CompletionSession session = newSession();
+        for (ATNState startState : atn.ruleToStartState) {
+            session.getFollowSets(startState);
+        }
+    }
+
+    /**
+     * Determines the follow sets for all rules and writes them to the given file, which can later be passed to
+     * {@link #loadFollowSets(ATN, Path)} when a process starts. The follow sets crossing semantic predicates depend on
+     * their results, they are left out.
+     */
+    public void writeFollowSets(Path file) throws IOException {
+        precomputeFollowSets();
+        FollowSetsSnapshot.write(file, atn, followSetsByState);
+    }
+
+    /**
+     * Loads follow sets written by {@link #writeFollowSets(Path)} into the shared cache for the given ATN.
+     * Returns false (and loads nothing) if the file was written for a different ATN, in which case the follow sets are
+     * determined on demand as usual.
+     */
+    public static boolean loadFollowSets(ATN atn, Path file) throws IOException {
+        Map<Integer, FollowSetsHolder> loaded = FollowSetsSnapshot.read(file, atn);
+        if (loaded == null) {
+            LOG.warn("Ignoring follow set snapshot {}, it doesn't match the ATN", file);
+            return false;
+        }
+        ConcurrentMap<Integer, FollowSetsHolder> setsPerState = followSetsByATN.getUnchecked(atn);
+        loaded.forEach(setsPerState::putIfAbsent);
+        return true;
+    }
+
+    /**
+     * Returns the key of the given rule, called with the given precedence, in the shortcut map.
+     */
+    int getMemoKey(int ruleIndex, int precedence) {
+        int[] precedences = rulePrecedences[ruleIndex];
+        if (precedences == null) {
+            return memoKeyBase[ruleIndex];
+        }
+        int index = Arrays.binarySearch(precedences, precedence);
+        if (index < 0) {
+            throw new IllegalArgumentException("Rule " + ruleNames[ruleIndex] + " is never called with precedence " + precedence);
+        }
+        return memoKeyBase[ruleIndex] + index;
+    }
+
+    int getMemoKeyCount() {
+        return memoKeyCount;
+    }
+
+    /**
+     * Determines the precedences each rule with precedence predicates is called with (including 0, for a call as start
+     * rule), in ascending order. Null for the rules without such predicates, where the precedence doesn't matter.
+     */
+    private static int[][] determineRulePrecedences(ATN atn) {
+        int ruleCount = atn.ruleToStartState.length;
+        boolean[] hasPrecedencePredicates = new boolean[ruleCount];
+        for (ATNState state : atn.states) {
+            if (state == null) {
+                continue;
+            }
+            for (Transition transition : state.getTransitions()) {
+                if (transition.getSerializationType() == Transition.PRECEDENCE) {
+                    hasPrecedencePredicates[state.ruleIndex] = true;
+                }
+            }
+        }
+
+        List<Set<Integer>> precedences = new ArrayList<>(ruleCount);
+        for (int rule = 0; rule < ruleCount; rule++) {
+            precedences.add(hasPrecedencePredicates[rule] ? new TreeSet<>(Collections.singleton(0)) : null);
+        }
+        for (ATNState state : atn.states) {
+            if (state == null) {
+                continue;
+            }
+            for (Transition transition : state.getTransitions()) {
+                if (transition.getSerializationType() == Transition.RULE) {
+                    RuleTransition ruleTransition = (RuleTransition) transition;
+                    Set<Integer> set = precedences.get(ruleTransition.target.ruleIndex);
+                    if (set != null) {
+                        set.add(ruleTransition.precedence);
+                    }
+                }
+            }
+        }
+
+        int[][] result = new int[ruleCount][];
+        for (int rule = 0; rule < ruleCount; rule++) {
+            Set<Integer> set = precedences.get(rule);
+            if (set != null) {
+                result[rule] = set.stream().mapToInt(Integer::intValue).toArray();
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the follow sets for the given rule start state if the engine keeps them already, null otherwise.
+     */
+    FollowSetsHolder findFollowSets(ATNState startState) {
+        FollowSetsHolder followSets = followSetsByState.get(startState.stateNumber);
+        return followSets != null ? followSets : configurationFollowSets.get(startState.stateNumber);
+    }
+
+    /**
+     * Determines the follow sets for the given rule start state, checking the predicates crossed with the given function.
+     * The engine keeps the result unless it depends on predicates with request or context scope (see
+     * {@link FollowSetsHolder#getPredicateScope()}), those are up to the caller.
+     */
+    FollowSetsHolder getFollowSets(ATNState startState, Predicate<PredicateTransition> predicates) {
+        FollowSetsHolder followSets = findFollowSets(startState);
+        if (followSets != null) {
+            return followSets;
+        }
+        // Only a missing entry goes through computeIfAbsent, which guarantees the sets are determined once, even when
+        // several threads enter the same rule for the first time. Sets crossing predicates aren't shared that way.
+        FollowSetsHolder[] determined = new FollowSetsHolder[1];
+        followSets = followSetsByState.computeIfAbsent(startState.stateNumber, key -> {
+            determined[0] = determineFollowSets(startState, atn.ruleToStopState[startState.ruleIndex], predicates);
+            return determined[0].getPredicateScope() == null ? determined[0] : null;
+        });
+        if (followSets != null) {
+            return followSets;
+        }
+        followSets = determined[0];
+        if (followSets.getPredicateScope() == PredicateScope.CONFIGURATION) {
+            FollowSetsHolder existing = configurationFollowSets.putIfAbsent(startState.stateNumber, followSets);
+            if (existing != null) {
+                followSets = existing;
+            }
+        }
+        return followSets;
+    }
+
+    /**
+     * Entry point for the recursive follow set collection function.
+     */
+    private FollowSetsHolder determineFollowSets(ATNState start, ATNState stop, Predicate<PredicateTransition> predicates) {
+        ArrayList<FollowSetWithPath> result = new ArrayList<>();
+        Set<ATNState> seen = new HashSet<>();
+        IntList ruleStack = new ArrayIntList();
+        Set<PredicateScope> crossed = EnumSet.noneOf(PredicateScope.class);
+        collectFollowSets(start, stop, result, seen, ruleStack, predicates, crossed);
+
+        // The scopes are ordered from the most to the least volatile one.
+        PredicateScope scope = crossed.isEmpty() ? null : crossed.iterator().next();
+        return new FollowSetsHolder(newTokenSet(ImmutableSet.of()), result, scope);
+    }
+
+    /**
+     * Check if the predicate associated with the given transition evaluates to true.
+     */
+    boolean checkPredicate(PredicateTransition transition) {
+        return predicateEvaluator.evaluate(transition.ruleIndex, transition.predIndex);
+    }
+
+    /**
+     * Returns the cached result of the given predicate with configuration scope (0: unknown, 1: false, 2: true).
+     */
+    int getConfigurationResult(int predIndex) {
+        return predicateResults.get(predIndex);
+    }
+
+    void setConfigurationResult(int predIndex, boolean result) {
+        predicateResults.set(predIndex, result ? 2 : 1);
+    }
+
+    /**
+     * Forgets the results of the predicates with configuration scope and the follow sets determined with them.
+     */
+    void invalidateConfiguration() {
+        for (int i = 0; i < predicateResults.length(); i++) {
+            predicateResults.set(i, 0);
+        }
+        configurationFollowSets.clear();
+    }
+
+    /**
+     * Returns the number of predicates of the grammar (one more than the largest predicate index).
+     */
+    int getPredicateCount() {
+        return predicateScopes.length;
+    }
+
+    PredicateScope getPredicateScope(int predIndex) {
+        return predicateScopes[predIndex];
+    }
+
+    int[] getRequestScopedPredicates() {
+        return requestScopedPredicates;
+    }
+
+    private static int countPredicates(ATN atn) {
+        int count = 0;
+        for (ATNState state : atn.states) {
+            if (state == null) {
+                continue;
+            }
+            for (Transition transition : state.getTransitions()) {
+                if (transition.getSerializationType() == Transition.PREDICATE) {
+                    count = Math.max(count, ((PredicateTransition) transition).predIndex + 1);
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns the tokens matched by the given (non-epsilon) transition, or null for a wildcard or empty label.
+     */
+    IntBitSet getTransitionTokens(Transition transition) {
+        IntBitSet tokens = transitionTokens.get(transition);
+        if (tokens == null) {
+            IntervalSet label = transition.label();
+            if (transition.getSerializationType() == Transition.WILDCARD || label == null || label.size() == 0) {
+                return null;
+            }
+            tokens = newTokenSet(ImmutableSet.of());
+            if (transition.getSerializationType() == Transition.NOT_SET) {
+                tokens.addRange(Token.MIN_USER_TOKEN_TYPE, atn.maxTokenType);
+                label.toList().forEach(tokens::remove);
+            } else {
+                for (Interval interval : label.getIntervals()) {
+                    tokens.addRange(interval.a, interval.b);
+                }
+            }
+            IntBitSet existing = transitionTokens.putIfAbsent(transition, tokens);
+            if (existing != null) {
+                tokens = existing;
+            }
+        }
+        return tokens;
+    }
+
+    /**
+     * Starting at the given state (the target of a transition), collects all symbols within the same rule that directly
+     * follow without intermediate transitions to other rules and only if there is a single symbol for a transition.
+     * The chain stops at an ignored token. The result is immutable and computed once per state and set of ignored tokens,
+     * it's empty for state -1.
+     */
+    IntList getFollowingTokens(int stateNumber, IntBitSet ignoredTokens) {
+        if (stateNumber < 0) {
+            return IntLists.empty();
+        }
+        ConcurrentMap<Integer, IntList> chains = followingTokens.get(ignoredTokens);
+        if (chains == null) {
+            chains = followingTokens.computeIfAbsent(new IntBitSet(ignoredTokens), key -> new ConcurrentHashMap<>());
+        }
+        IntList result = chains.get(stateNumber);
+        if (result == null) {
+            result = IntLists.copyOf(determineFollowingTokens(atn.states.get(stateNumber), ignoredTokens));
+            IntList existing = chains.putIfAbsent(stateNumber, result);
+            if (existing != null) {
+                result = existing;
+            }
+        }
+        return result;
+    }
+
+    private IntList determineFollowingTokens(ATNState start, IntBitSet ignoredTokens) {
+        IntList result = new ArrayIntList();
+
+        Deque<ATNState> pipeline = new ArrayDeque<>();
+        pipeline.addLast(start);
+
+        while (!pipeline.isEmpty()) {
+            ATNState state = pipeline.removeLast();
+
+            for (Transition trans : Objects.requireNonNull(state).getTransitions()) {
+                if (trans.getSerializationType() == Transition.ATOM) {
+                    if (!trans.isEpsilon()) {
+                        List<Integer> list = Objects.requireNonNull(trans.label()).toList();
+                        if (list.size() == 1 && !ignoredTokens.contains(list.get(0))) {
+                            result.add(list.get(0));
+                            pipeline.addLast(trans.target);
+                        }
+                    } else {
+                        pipeline.addLast(trans.target);
+                    }
+                }
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Collects possible tokens which could be matched following the given ATN state. This is essentially the same
+     * algorithm as used in the LL1Analyzer class, but here we consider predicates also and use no parser rule context.
+     * The scopes of the predicates crossed are added to the given set.
+     */
+    private void collectFollowSets(ATNState s, ATNState stopState, List<FollowSetWithPath> followSets, Set<ATNState> seen, IntList ruleStack,
+            Predicate<PredicateTransition> predicates, Set<PredicateScope> crossed) {
+        if (seen.contains(s)) {
+            return;
+        }
+
+        seen.add(s);
+
+        if (s == stopState || s.getStateType() == ATNState.RULE_STOP) {
+            IntBitSet tokens = newTokenSet(ImmutableSet.of(Token.EPSILON));
+            FollowSetWithPath set = new FollowSetWithPath(tokens, new ArrayIntList(ruleStack));
+            followSets.add(set);
+            return;
+        }
+
+        for (Transition transition : s.getTransitions()) {
+            final int serializationType = transition.getSerializationType();
+            if (serializationType == Transition.RULE) {
+                RuleTransition ruleTransition = (RuleTransition) transition;
+                if (ruleStack.indexOf(ruleTransition.target.ruleIndex) != -1) {
+                    continue;
+                }
+
+                ruleStack.push(ruleTransition.target.ruleIndex);
+                collectFollowSets(transition.target, stopState, followSets, seen, ruleStack, predicates, crossed);
+                ruleStack.pop();
+            } else if (serializationType == Transition.PREDICATE) {
+                PredicateTransition predicateTransition = (PredicateTransition) transition;
+                crossed.add(predicateScopes[predicateTransition.predIndex]);
+                if (predicates.test(predicateTransition)) {
+                    collectFollowSets(transition.target, stopState, followSets, seen, ruleStack, predicates, crossed);
+                }
+            } else if (transition.isEpsilon()) {
+                collectFollowSets(transition.target, stopState, followSets, seen, ruleStack, predicates, crossed);
+            } else if (serializationType == Transition.WILDCARD) {
+                IntBitSet tokens = newTokenSet(ImmutableSet.of());
+                tokens.addRange(Token.MIN_USER_TOKEN_TYPE, atn.maxTokenType);
+                FollowSetWithPath set = new FollowSetWithPath(tokens, new ArrayIntList(ruleStack));
+                followSets.add(set);
+            } else {
+                IntBitSet tokens = getTransitionTokens(transition);
+                if (tokens != null) {
+                    FollowSetWithPath set = new FollowSetWithPath(tokens, new ArrayIntList(ruleStack), transition.target.stateNumber);
+                    followSets.add(set);
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,12 @@
+package com.albatarm.c3;
+
+// Gets the statistics of every completion request of an engine, on the thread which made the request.
+@FunctionalInterface
+public interface CompletionListener {
+
+    CompletionListener NONE = statistics -> {
+    };
+
+    void requestCompleted(CompletionStatistics statistics);
+
+}
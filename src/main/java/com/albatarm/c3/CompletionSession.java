@@ -0,0 +1,1261 @@
+package com.albatarm.c3;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.antlr.v4.runtime.BufferedTokenStream;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.ParserRuleContext;
+import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.TokenStream;
+import org.antlr.v4.runtime.atn.ATN;
+import org.antlr.v4.runtime.atn.ATNState;
+import org.antlr.v4.runtime.atn.PrecedencePredicateTransition;
+import org.antlr.v4.runtime.atn.PredicateTransition;
+import org.antlr.v4.runtime.atn.RuleTransition;
+import org.antlr.v4.runtime.atn.Transition;
+
+import com.albatarm.c3.collection.ArrayIntList;
+import com.albatarm.c3.collection.IntBitSet;
+import com.albatarm.c3.collection.IntList;
+import com.albatarm.c3.collection.IntLists;
+import com.google.common.primitives.Ints;
+
+// The per-request state of the code completion core: the tokens, the shortcut memo, the ATN walk and the collected
+// candidates. A session belongs to a single thread, but can (and should) be reused for further requests of that thread,
+// as it keeps its buffers. The ignored tokens and preferred rules of the engine can be overridden per session.
+// Requests either read a token stream or run directly on an array of token types (no parser needed, see
+// CodeCompletionEngine.builder(ATN, Vocabulary, String[])).
+// With a fork/join pool (see setParallel) the branches of a decision are walked as parallel tasks, each in a child
+// session of its own. The candidate changes of the tasks are replayed in the order of the sequential walk, so the result
+// doesn't depend on the scheduling.
+public final class CompletionSession {
+
+    public static final int DEFAULT_FORK_THRESHOLD = 64;
+
+    // The channel of a CommonTokenStream, for reading its tokens by index, and the markers for streams of all channels
+    // (any other BufferedTokenStream) or of a channel we couldn't find out.
+    private static final Field CHANNEL_FIELD = findChannelField();
+    private static final int ANY_CHANNEL = -1;
+    private static final int UNKNOWN_CHANNEL = -2;
+    // Don't fork while the current worker has more than this number of queued tasks nobody took yet.
+    private static final int MAX_SURPLUS_TASKS = 2;
+    // Tasks run nested on the thread stack when joined, so limit the nesting of forks.
+    private static final int MAX_FORK_DEPTH = 16;
+    // The number of states processed between checks of the clock and the cancellation token.
+    private static final int CHECK_INTERVAL = 64;
+
+    private final CodeCompletionEngine engine;
+    private final ATN atn;
+
+    // Tailoring of the result, the engine configuration unless overridden for this session.
+    private IntBitSet ignoredTokens;
+    private IntBitSet preferredRules;
+
+    // The token types the walk runs on: tokens[tokenOffset] is the first token, tokens[tokenOffset + tokenCount - 1]
+    // the caret token. Either an array given by the caller or our own buffer, filled from a token stream.
+    private int[] tokens;
+    private int tokenOffset;
+    private int tokenCount;
+    private int[] streamTokens = new int[64];
+
+    private int tokenStartIndex = 0;
+    private int statesProcessed = 0;
+    // Statistics of the request.
+    private long shortcutHits;
+    private long shortcutMisses;
+    private long followSetHits;
+    private long followSetComputations;
+    private long rulesEntered;
+    private long predicateEvaluations;
+
+    // The budget of a request: the maximum number of states to process, the time limit and a token to cancel it.
+    private long stateLimit = Long.MAX_VALUE;
+    private long timeLimit;
+    private CancellationToken cancellationToken;
+    // Set while a request runs: the deadline, the states processed since the last check and whether we stopped.
+    // In parallel mode the states of all tasks are counted together and a stopped task stops the others too.
+    private boolean hasDeadline;
+    private long deadline;
+    private int checkCountdown;
+    private boolean stopped;
+    private AtomicLong sharedStates;
+    private volatile boolean requestStopped;
+
+    // A mapping of rule index + token stream position to end token positions.
+    // A rule which has been visited before with the same input position will always produce the same output positions.
+    private final ShortcutTable shortcutMap = new ShortcutTable();
+    private Candidates.Builder candidates; // The collected candidates (rules and tokens).
+
+    // Incremental mode: the input of the previous request, to find out which part of the memo is still valid.
+    private boolean incremental;
+    private int[] previousTokens = new int[0];
+    private int previousTokenCount = -1;
+    private int previousStartIndex;
+    private int previousStartRule;
+
+    private CompletionTracer tracer = CompletionTracer.NONE;
+
+    // The cached results of the predicates with request scope, by predicate index (0: unknown, 1: false, 2: true), and
+    // the follow sets of the request which crossed predicates with request or context scope, by rule start state.
+    // In parallel mode the tasks use those of the root session, a race only costs an evaluation.
+    private final byte[] predicateResults;
+    private final ConcurrentMap<Integer, FollowSetsHolder> requestFollowSets = new ConcurrentHashMap<>();
+
+    // Parallel mode: the pool to walk rules in and the minimum number of tokens left for a fork.
+    private ForkJoinPool pool;
+    private int forkThreshold = DEFAULT_FORK_THRESHOLD;
+    // Set while a request runs in parallel mode: the shortcuts shared by all tasks and, for the child session of a task,
+    // the forking session and the log of candidate changes.
+    private SharedShortcutTable sharedShortcuts;
+    private CompletionSession parent;
+    private CandidateLog log;
+    private int forkDepth;
+    // The child sessions of the tasks, kept by the session the request was made on.
+    private CompletionSession root = this;
+    private final ConcurrentLinkedQueue<CompletionSession> idleChildren = new ConcurrentLinkedQueue<>();
+
+    // The state of the ATN walk: the pending states, the rules being walked and their indexes.
+    private final StatePipeline pipeline = new StatePipeline();
+    private RuleFrame[] frames = new RuleFrame[16];
+    private int frameCount;
+    private final IntList callStack = new ArrayIntList();
+
+    CompletionSession(CodeCompletionEngine engine) {
+        this.engine = engine;
+        this.atn = engine.getAtn();
+        this.ignoredTokens = engine.getIgnoredTokenSet();
+        this.preferredRules = engine.getPreferredRuleSet();
+        this.predicateResults = new byte[engine.getPredicateCount()];
+    }
+
+    public CodeCompletionEngine getEngine() {
+        return engine;
+    }
+
+    /**
+     * Enables or disables the incremental mode. In this mode the rule walks memoized by a request are kept for the next
+     * one (typically the same text after a keystroke). Only the walks which looked at a token that changed since then
+     * (or at the previous or current caret) are repeated, so extending the input by a token costs about as much as walking
+     * that token instead of the whole input. The same start index and start rule must be used for that.
+     */
+    public void setIncremental(boolean incremental) {
+        this.incremental = incremental;
+        previousTokenCount = -1;
+    }
+
+    public boolean isIncremental() {
+        return incremental;
+    }
+
+    /**
+     * Sets the tracer to pass the events of the ATN walk to, e.g. a {@link LoggingCompletionTracer} for debugging.
+     */
+    public void setTracer(CompletionTracer tracer) {
+        this.tracer = Objects.requireNonNull(tracer);
+    }
+
+    /**
+     * Enables the parallel mode, with the branches of decisions walked as tasks in the given pool (null for
+     * the sequential walk). Pays off for big inputs of highly ambiguous grammars. The predicate evaluator of the engine
+     * must be thread safe for this.
+     */
+    public void setParallel(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    public ForkJoinPool getParallel() {
+        return pool;
+    }
+
+    /**
+     * Sets the minimum number of tokens (up to the caret) a branch must have left to be walked as a task of its own.
+     */
+    public void setForkThreshold(int forkThreshold) {
+        this.forkThreshold = Math.max(1, forkThreshold);
+    }
+
+    /**
+     * Limits the number of ATN states a request may process. Once reached, the request stops and returns the candidates
+     * collected so far. In parallel mode, the limit applies to all tasks together (checked every few states).
+     */
+    public void setStateLimit(long stateLimit) {
+        this.stateLimit = stateLimit <= 0 ? Long.MAX_VALUE : stateLimit;
+    }
+
+    /**
+     * Limits the time a request may take (0 for no limit). Once over, the request stops and returns the candidates
+     * collected so far.
+     */
+    public void setTimeLimit(long time, TimeUnit unit) {
+        this.timeLimit = Math.max(0, unit.toNanos(time));
+    }
+
+    /**
+     * Sets the token to cancel the next requests with, or null for none.
+     */
+    public void setCancellationToken(CancellationToken cancellationToken) {
+        this.cancellationToken = cancellationToken;
+    }
+
+    /**
+     * Forgets the memo of previous requests, the cached results of predicates with configuration scope and the follow
+     * sets determined with them. Only needed in incremental mode or with such predicates, when something other than the
+     * tokens changed which affects the parse (e.g. the state predicates depend on). The latter are kept by the engine,
+     * so this applies to all its sessions and shouldn't be called while one of them runs a request.
+     */
+    public void invalidate() {
+        previousTokenCount = -1;
+        engine.invalidateConfiguration();
+    }
+
+    /**
+     * Overrides the ignored tokens of the engine for the requests of this session.
+     */
+    public void setIgnoredTokens(int... ignoredTokens) {
+        this.ignoredTokens = engine.newTokenSet(Ints.asList(ignoredTokens));
+        previousTokenCount = -1;
+    }
+
+    /**
+     * Overrides the preferred rules of the engine for the requests of this session.
+     */
+    public void setPreferredRules(int... preferredRules) {
+        this.preferredRules = engine.newRuleSet(Ints.asList(preferredRules));
+        previousTokenCount = -1;
+    }
+
+    /**
+     * Goes back to the ignored tokens and preferred rules of the engine.
+     */
+    public void resetOverrides() {
+        this.ignoredTokens = engine.getIgnoredTokenSet();
+        this.preferredRules = engine.getPreferredRuleSet();
+        previousTokenCount = -1;
+    }
+
+    /**
+     * This is the main entry point. The caret token index specifies the index in the given token stream for the token which
+     * currently covers the caret (or any other position you want to get code completion candidates for).
+     * Optionally you can pass in a parser rule context which limits the ATN walk to only that or called rules. This can significantly
+     * speed up the retrieval process but might miss some candidates (if they are outside of the given context).
+     */
+    public Candidates collectCandidates(TokenStream tokenStream, int caretTokenIndex, ParserRuleContext context) {
+        int startIndex = context == null ? 0 : context.getStart().getTokenIndex();
+
+        int count = readStream(tokenStream, startIndex, caretTokenIndex, null);
+        int startRule = context == null ? 0 : context.getRuleIndex();
+        return collectCandidates(streamTokens, 0, count, startIndex, startRule);
+    }
+
+    /**
+     * Collects the candidates for the given (already lexed) token types, without any parser or token stream. The caret index
+     * specifies the array index of the token which currently covers the caret, the walk starts at the first token with
+     * the first rule of the grammar.
+     */
+    public Candidates collectCandidates(int[] tokenTypes, int caretIndex) {
+        return collectCandidates(tokenTypes, 0, caretIndex, 0);
+    }
+
+    /**
+     * Collects the candidates for a slice of the given token types, which starts at the given array index with the given rule
+     * (like the parser rule context of {@link #collectCandidates(TokenStream, int, ParserRuleContext)}) and ends with the caret
+     * token (or an earlier EOF token). The array is used as is, it must not be changed while the call runs.
+     */
+    public Candidates collectCandidates(int[] tokenTypes, int fromIndex, int caretIndex, int startRule) {
+        if (fromIndex < 0 || fromIndex > caretIndex || caretIndex >= tokenTypes.length) {
+            throw new IndexOutOfBoundsException("fromIndex = " + fromIndex + ", caretIndex = " + caretIndex + ", length = " + tokenTypes.length);
+        }
+        int end = fromIndex;
+        while (end < caretIndex && tokenTypes[end] != Token.EOF) {
+            end++;
+        }
+        return collectCandidates(tokenTypes, fromIndex, end - fromIndex + 1, fromIndex, startRule);
+    }
+
+    /**
+     * Collects the candidates for several caret positions of the same input, e.g. for all tokens of a file. The caret token
+     * indexes must be ascending, the result has the candidates for each of them (in the same order), the same as from
+     * {@link #collectCandidates(TokenStream, int, ParserRuleContext)} at that caret. The tokens are read only once, then
+     * each caret is a request of its own which keeps the memo of the previous one for the rule walks which ended before
+     * its caret. The rules spanning a caret (at least the top ones) are walked again for each caret.
+     */
+    public List<Candidates> collectCandidates(TokenStream tokenStream, int[] caretTokenIndexes, ParserRuleContext context) {
+        checkAscending(caretTokenIndexes);
+        int startIndex = context == null ? 0 : context.getStart().getTokenIndex();
+        int[] caretCounts = new int[caretTokenIndexes.length];
+
+        IntList tokenIndexes = new ArrayIntList();
+        int count = caretTokenIndexes.length == 0 ? 0
+                : readStream(tokenStream, startIndex, caretTokenIndexes[caretTokenIndexes.length - 1], tokenIndexes);
+        int caret = 0;
+        for (int i = 0; i < count; i++) {
+            while (caret < caretTokenIndexes.length
+                    && (tokenIndexes.get(i) >= caretTokenIndexes[caret] || streamTokens[i] == Token.EOF)) {
+                caretCounts[caret++] = i + 1;
+            }
+        }
+
+        int startRule = context == null ? 0 : context.getRuleIndex();
+        return collectCandidates(streamTokens, 0, caretCounts, startIndex, startRule);
+    }
+
+    /**
+     * Reads the types of the tokens a parser would see, from the start index up to the stop index (or EOF), into
+     * streamTokens and their token indexes into the given list (if any). Returns the number of tokens read.
+     * A BufferedTokenStream is filled and then read by absolute index, which costs O(1) per token (LT(k) walks k tokens
+     * on every call), keeping the tokens on the channel of a CommonTokenStream. Other streams are read with LT(k) and
+     * seeked back afterwards. Either way the stream is only touched under a lock on it, so sessions on several threads
+     * can read the same stream (but not while a parser consumes it).
+     */
+    private int readStream(TokenStream tokenStream, int startIndex, int stopIndex, IntList tokenIndexes) {
+        int channel = tokenStream instanceof CommonTokenStream ? getChannel((CommonTokenStream) tokenStream) : ANY_CHANNEL;
+        int count = 0;
+        if (tokenStream instanceof BufferedTokenStream && channel != UNKNOWN_CHANNEL) {
+            synchronized (tokenStream) {
+                ((BufferedTokenStream) tokenStream).fill();
+            }
+            for (int i = startIndex; ; i++) {
+                Token token = tokenStream.get(i);
+                if (channel == ANY_CHANNEL || token.getChannel() == channel || token.getType() == Token.EOF) {
+                    count = addStreamToken(count, token, tokenIndexes);
+                    if (token.getTokenIndex() >= stopIndex || token.getType() == Token.EOF) {
+                        return count;
+                    }
+                }
+            }
+        }
+        synchronized (tokenStream) {
+            // The index of a buffered stream nobody read yet is -1, it would start at 0.
+            int currentIndex = Math.max(tokenStream.index(), 0);
+            tokenStream.seek(startIndex);
+            try {
+                for (int offset = 1; ; offset++) {
+                    Token token = tokenStream.LT(offset);
+                    count = addStreamToken(count, token, tokenIndexes);
+                    if (token.getTokenIndex() >= stopIndex || token.getType() == Token.EOF) {
+                        return count;
+                    }
+                }
+            } finally {
+                tokenStream.seek(currentIndex);
+            }
+        }
+    }
+
+    private int addStreamToken(int count, Token token, IntList tokenIndexes) {
+        if (count == streamTokens.length) {
+            streamTokens = Arrays.copyOf(streamTokens, count * 2);
+        }
+        streamTokens[count] = token.getType();
+        if (tokenIndexes != null) {
+            tokenIndexes.add(token.getTokenIndex());
+        }
+        return count + 1;
+    }
+
+    /**
+     * Returns the channel a CommonTokenStream reads, which it doesn't expose, or UNKNOWN_CHANNEL if that can't be found
+     * out (then the stream is read through LT(k)).
+     */
+    private static int getChannel(CommonTokenStream tokenStream) {
+        if (CHANNEL_FIELD == null) {
+            return UNKNOWN_CHANNEL;
+        }
+        try {
+            return CHANNEL_FIELD.getInt(tokenStream);
+        } catch (IllegalAccessException e) {
+            return UNKNOWN_CHANNEL;
+        }
+    }
+
+    private static Field findChannelField() {
+        try {
+            Field field = CommonTokenStream.class.getDeclaredField("channel");
+            field.setAccessible(true);
+            return field;
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Collects the candidates for several caret positions in a slice of the given token types, see
+     * {@link #collectCandidates(int[], int, int, int)} and {@link #collectCandidates(TokenStream, int[], ParserRuleContext)}.
+     * The caret indexes are array indexes and must be ascending.
+     */
+    public List<Candidates> collectCandidates(int[] tokenTypes, int fromIndex, int[] caretIndexes, int startRule) {
+        checkAscending(caretIndexes);
+        if (caretIndexes.length > 0 && (fromIndex < 0 || fromIndex > caretIndexes[0] || caretIndexes[caretIndexes.length - 1] >= tokenTypes.length)) {
+            throw new IndexOutOfBoundsException("fromIndex = " + fromIndex + ", caretIndexes = " + caretIndexes[0] + ".."
+                    + caretIndexes[caretIndexes.length - 1] + ", length = " + tokenTypes.length);
+        }
+        int[] caretCounts = new int[caretIndexes.length];
+        int end = fromIndex;
+        for (int i = 0; i < caretIndexes.length; i++) {
+            while (end < caretIndexes[i] && tokenTypes[end] != Token.EOF) {
+                end++;
+            }
+            caretCounts[i] = end - fromIndex + 1;
+        }
+        return collectCandidates(tokenTypes, fromIndex, caretCounts, fromIndex, startRule);
+    }
+
+    private static void checkAscending(int[] caretIndexes) {
+        for (int i = 1; i < caretIndexes.length; i++) {
+            if (caretIndexes[i] <= caretIndexes[i - 1]) {
+                throw new IllegalArgumentException("Caret indexes must be ascending: " + caretIndexes[i - 1] + ", " + caretIndexes[i]);
+            }
+        }
+    }
+
+    /**
+     * Runs a request per caret, each on a longer prefix of the given tokens (the counts are the token counts up to each
+     * caret). A request keeps the memo entries of the previous one which didn't look at its caret token, without comparing
+     * the tokens as in incremental mode.
+     */
+    private List<Candidates> collectCandidates(int[] tokenTypes, int offset, int[] caretCounts, int startIndex, int startRule) {
+        List<Candidates> result = new ArrayList<>(caretCounts.length);
+        for (int i = 0; i < caretCounts.length; i++) {
+            result.add(collectCandidates(tokenTypes, offset, caretCounts[i], startIndex, startRule, i > 0, i < caretCounts.length - 1));
+        }
+        return result;
+    }
+
+    private Candidates collectCandidates(int[] tokenTypes, int offset, int count, int startIndex, int startRule) {
+        return collectCandidates(tokenTypes, offset, count, startIndex, startRule, false, false);
+    }
+
+    /**
+     * Runs a single request. A continued request is part of a batch and has the tokens of the previous one (and maybe more),
+     * more requests of the batch follow unless it is the last one.
+     */
+    private Candidates collectCandidates(int[] tokenTypes, int offset, int count, int startIndex, int startRule,
+            boolean continued, boolean more) {
+        long startTime = System.nanoTime();
+        candidates = Candidates.builder();
+        resetStatistics();
+        for (int predIndex : engine.getRequestScopedPredicates()) {
+            predicateResults[predIndex] = 0;
+        }
+        requestFollowSets.clear();
+        hasDeadline = timeLimit > 0;
+        deadline = startTime + timeLimit;
+        checkCountdown = CHECK_INTERVAL;
+        stopped = false;
+        requestStopped = false;
+
+        tokens = tokenTypes;
+        tokenOffset = offset;
+        tokenCount = count;
+        tokenStartIndex = startIndex;
+        prepareShortcutMap(startRule, continued);
+        previousTokenCount = -1; // Until the walk is done, the memo doesn't match any input.
+        sharedShortcuts = pool == null ? null : new SharedShortcutTable(engine.getMemoKeyCount(), tokenCount);
+        sharedStates = pool == null ? null : new AtomicLong();
+
+        callStack.clear();
+        // The walk checks the cancellation and the deadline every few states only, a request which is cancelled or out
+        // of time already doesn't walk any.
+        if (isCancelledOrLate()) {
+            stop();
+        } else {
+            walk(atn.ruleToStartState[startRule], 0);
+        }
+        sharedShortcuts = null;
+        sharedStates = null;
+
+        if (incremental || more) {
+            // Within a batch only the token count is needed, the tokens are copied once it is done.
+            if (incremental && !more) {
+                if (previousTokens.length < tokenCount) {
+                    previousTokens = new int[Math.max(tokenCount, previousTokens.length * 2)];
+                }
+                System.arraycopy(tokens, tokenOffset, previousTokens, 0, tokenCount);
+            }
+            previousTokenCount = tokenCount;
+            previousStartIndex = startIndex;
+            previousStartRule = startRule;
+        }
+        tokens = null;
+
+        CompletionStatistics statistics = new CompletionStatistics(statesProcessed, shortcutHits, shortcutMisses, followSetHits,
+                followSetComputations, rulesEntered, predicateEvaluations, System.nanoTime() - startTime, stopped);
+        engine.getListener().requestCompleted(statistics);
+
+        return candidates.setPartial(stopped).setStatistics(statistics).build();
+    }
+
+    private void resetStatistics() {
+        statesProcessed = 0;
+        shortcutHits = 0;
+        shortcutMisses = 0;
+        followSetHits = 0;
+        followSetComputations = 0;
+        rulesEntered = 0;
+        predicateEvaluations = 0;
+    }
+
+    private void addStatistics(CompletionSession child) {
+        statesProcessed += child.statesProcessed;
+        shortcutHits += child.shortcutHits;
+        shortcutMisses += child.shortcutMisses;
+        followSetHits += child.followSetHits;
+        followSetComputations += child.followSetComputations;
+        rulesEntered += child.rulesEntered;
+        predicateEvaluations += child.predicateEvaluations;
+    }
+
+    /**
+     * Clears the shortcut map for a new request or, in incremental mode, drops only the entries which are outdated: those
+     * which looked at the first token that differs from the previous request or at any later one. This includes
+     * the previous caret token (the walk collected candidates there) and the new one. A continued request of a batch
+     * keeps everything before the previous caret token, whether incremental or not.
+     */
+    private void prepareShortcutMap(int startRule, boolean continued) {
+        int keyCount = engine.getMemoKeyCount();
+        if (continued && previousTokenCount >= 0) {
+            shortcutMap.retainBelow(previousTokenCount - 1, keyCount, tokenCount);
+            return;
+        }
+        if (!incremental || previousTokenCount < 0 || previousStartIndex != tokenStartIndex || previousStartRule != startRule) {
+            shortcutMap.reset(keyCount, tokenCount);
+            return;
+        }
+
+        int limit = Math.min(previousTokenCount, tokenCount) - 1;
+        for (int i = 0; i < limit; i++) {
+            if (previousTokens[i] != tokens[tokenOffset + i]) {
+                limit = i;
+                break;
+            }
+        }
+        shortcutMap.retainBelow(limit, keyCount, tokenCount);
+    }
+
+    /**
+     * Walks the ATN from the given rule start state. Rules called on the way are walked through an explicit stack of frames
+     * (instead of recursion), so deeply nested input cannot exhaust the thread stack.
+     */
+    private void walk(ATNState startState, int tokenIndex) {
+        pipeline.clear();
+        frameCount = 0;
+        enterRule(startState, tokenIndex, 0);
+        run();
+    }
+
+    /**
+     * Walks a single branch of a decision in the given rule (the task of a child session in parallel mode). The end
+     * positions found on the way are collected on the first level of the shortcut map, the rule itself is not cached.
+     */
+    private void walkBranch(ATNState startState, int ruleTokenIndex, int precedence, int memoKey, ATNState branch, int tokenIndex) {
+        pipeline.clear();
+        frameCount = 0;
+        RuleFrame frame = pushFrame(startState, ruleTokenIndex, precedence, memoKey);
+        frame.partial = true;
+        frame.reach = tokenIndex;
+        pipeline.push(branch.stateNumber, tokenIndex);
+        run();
+    }
+
+    private void run() {
+        while (frameCount > 0 && !stopped) {
+            RuleFrame frame = frames[frameCount - 1];
+            if (frame.isSuspended()) {
+                // A called rule is done (its end positions are in the pipeline now), continue with the remaining transitions.
+                int nextTransition = frame.nextTransition;
+                frame.nextTransition = -1;
+                processTransitions(frame, frame.suspendedState, frame.suspendedTokenIndex, nextTransition);
+            } else if (pipeline.size() == frame.pipelineBase) {
+                exitRule(frame);
+            } else {
+                long entry = pipeline.pop();
+                processState(frame, atn.states.get(StatePipeline.stateNumber(entry)), StatePipeline.tokenIndex(entry));
+            }
+        }
+
+        if (stopped) {
+            // Abandon the rules still being walked, without caching anything for them.
+            for (int i = 0; i < frameCount; i++) {
+                if (log != null && !frames[i].partial) {
+                    log.abandon(frames[i].logMark);
+                }
+            }
+            frameCount = 0;
+            pipeline.clear();
+        }
+    }
+
+    /**
+     * Checks the budget of the request, which stops the walk once used up or cancelled. The state limit is checked
+     * for every state, the rest only every few states.
+     */
+    private boolean isOverBudget() {
+        if (sharedStates == null && statesProcessed >= stateLimit) {
+            return true;
+        }
+        if (--checkCountdown > 0) {
+            return false;
+        }
+        checkCountdown = CHECK_INTERVAL;
+        if (sharedStates != null && sharedStates.addAndGet(CHECK_INTERVAL) >= stateLimit) {
+            return true;
+        }
+        return root.requestStopped || isCancelledOrLate();
+    }
+
+    private boolean isCancelledOrLate() {
+        return cancellationToken != null && cancellationToken.isCancelled()
+                || hasDeadline && System.nanoTime() - deadline >= 0;
+    }
+
+    private void stop() {
+        stopped = true;
+        root.requestStopped = true;
+        tracer.walkStopped(statesProcessed);
+    }
+
+    /**
+     * Starts walking a single rule. The end positions of the rule (the token stream position for each path that could be
+     * matched in this rule) are pushed onto the pipeline of the calling rule, with the follow state of the calling transition.
+     * This happens immediately if the rule was walked before at this position or if it cannot match anything here,
+     * otherwise a new frame is pushed and the method returns true. The result can be empty in case we hit only non-epsilon
+     * transitions that didn't match the current input or if we hit the caret position.
+     */
+    private boolean enterRule(ATNState startState, int tokenIndex, int precedence) {
+        // Start with rule specific handling before going into the ATN walk.
+
+        // Check first if we've taken this path with the same input (and precedence) before.
+        int memoKey = engine.getMemoKey(startState.ruleIndex, precedence);
+        long shortcut = lookupShortcut(memoKey, tokenIndex);
+        if (shortcut != 0) {
+            shortcutHits++;
+            tracer.shortcutTaken(startState.ruleIndex, tokenStartIndex + tokenIndex);
+            if (frameCount > 0) {
+                frames[frameCount - 1].extendReach(shortcutMap.getReach(memoKey, tokenIndex));
+            }
+            pushEndPositions(shortcut);
+            return false;
+        }
+
+        // For rule start states we determine and cache the follow set, which gives us 3 advantages:
+        // 1) We can quickly check if a symbol would be matched when we follow that rule. We can so check in advance
+        //    and can save us all the intermediate steps if there is no match.
+        // 2) We'll have all symbols that are collectable already together when we are at the caret when entering a rule.
+        // 3) We get this lookup for free with any 2nd or further visit of the same rule, which often happens
+        //    in non trivial grammars, especially with (recursive) expressions and of course when invoking code completion
+        //    multiple times.
+        shortcutMisses++;
+        FollowSetsHolder followSets = findFollowSets(startState);
+        if (followSets != null) {
+            followSetHits++;
+        } else {
+            followSetComputations++;
+            followSets = getFollowSets(startState);
+        }
+
+        callStack.push(startState.ruleIndex);
+        int currentSymbol = tokens[tokenOffset + tokenIndex];
+
+        if (tokenIndex >= tokenCount - 1) { // At caret?
+            // If the call stack contains a preferred rule (e.g. this one), all follow sets translate to it. In that case
+            // there is also no need to go deeper, we reached a rule that we want to collect anyway.
+            if (!translateToRuleIndex(callStack)) {
+                // Convert all follow sets to either single symbols or their associated preferred rule and add
+                // the result to our candidates list.
+                for (FollowSetWithPath set : followSets.getSets()) {
+                    if (!translateToRuleIndex(callStack, set.getPath())) {
+                        IntBitSet symbols = set.getTokens();
+                        for (int symbol = symbols.next(symbols.getMin()); symbol <= symbols.getMax(); symbol = symbols.next(symbol + 1)) {
+                            if (!ignoredTokens.contains(symbol)) {
+                                tracer.tokenCollected(symbol);
+                                mergeToken(symbol, engine.getFollowingTokens(set.getFollowingState(), ignoredTokens));
+                            }
+                        }
+                    }
+                }
+            }
+
+            callStack.pop();
+            return false;
+        } else {
+            // Process the rule if we either could pass it without consuming anything (epsilon transition)
+            // or if the current input symbol will be matched somewhere after this entry point.
+            // Otherwise stop here.
+            IntBitSet combined = followSets.getCombined();
+            if (!combined.contains(Token.EPSILON) && !combined.contains(currentSymbol)) {
+                callStack.pop();
+                return false;
+            }
+        }
+
+        RuleFrame frame = pushFrame(startState, tokenIndex, precedence, memoKey);
+        rulesEntered++;
+        tracer.ruleEntered(startState.ruleIndex, tokenStartIndex + tokenIndex);
+        if (log != null) {
+            frame.logMark = log.begin(memoKey, tokenIndex);
+        }
+
+        // The current state execution pipeline contains all yet-to-be-processed ATN states in this rule.
+        // For each such state we store the token index + a list of rules that lead to it.
+        // Bootstrap the pipeline.
+        pipeline.push(startState.stateNumber, tokenIndex);
+        return true;
+    }
+
+    private RuleFrame pushFrame(ATNState startState, int tokenIndex, int precedence, int memoKey) {
+        if (frameCount == frames.length) {
+            frames = Arrays.copyOf(frames, frameCount * 2);
+        }
+        RuleFrame frame = frames[frameCount];
+        if (frame == null) {
+            frame = new RuleFrame();
+            frames[frameCount] = frame;
+        }
+        frameCount++;
+
+        frame.startState = startState;
+        frame.tokenIndex = tokenIndex;
+        frame.precedence = precedence;
+        frame.memoKey = memoKey;
+        frame.reach = tokenIndex;
+        frame.nextTransition = -1;
+        frame.partial = false;
+        frame.pipelineBase = pipeline.size();
+        shortcutMap.begin(frameCount - 1);
+        return frame;
+    }
+
+    /**
+     * Finishes the walk of the rule in the given (topmost) frame, once all its states have been processed.
+     */
+    private void exitRule(RuleFrame frame) {
+        if (frame.partial) {
+            // A branch walked by a task, the forking session takes over the end positions.
+            frameCount--;
+            return;
+        }
+        callStack.pop();
+        frameCount--;
+        tracer.ruleExited(frame.startState.ruleIndex, tokenStartIndex + frame.tokenIndex);
+
+        // Cache the result, for later lookup to avoid duplicate walks.
+        long endStatus = shortcutMap.commit(frameCount, frame.memoKey, frame.tokenIndex, frame.reach);
+        if (frame.reach < tokenCount - 1) {
+            // The walk didn't get to the caret, so it didn't collect anything and any task can use the result.
+            if (sharedShortcuts != null) {
+                int[] entry = shortcutMap.copyPositions(endStatus, 1);
+                entry[0] = frame.reach;
+                sharedShortcuts.put(frame.memoKey, frame.tokenIndex, entry);
+            }
+            if (log != null) {
+                log.discard(frame.logMark);
+            }
+        } else if (log != null) {
+            log.end(frame.logMark, frame.reach, shortcutMap.copyPositions(endStatus, 0));
+        }
+        if (frameCount > 0) {
+            frames[frameCount - 1].extendReach(frame.reach);
+            pushEndPositions(endStatus);
+        }
+    }
+
+    /**
+     * Continues the caller of the rule which is currently entered or left at the given end positions, i.e. at the follow
+     * state of the rule transition the caller is suspended at.
+     */
+    private void pushEndPositions(long endStatus) {
+        if (frameCount == 0) {
+            return;
+        }
+        RuleFrame caller = frames[frameCount - 1];
+        RuleTransition transition = (RuleTransition) caller.suspendedState.transition(caller.nextTransition - 1);
+        int end = ShortcutTable.start(endStatus) + ShortcutTable.length(endStatus);
+        for (int i = ShortcutTable.start(endStatus); i < end; i++) {
+            pipeline.push(transition.followState.stateNumber, shortcutMap.position(i));
+        }
+    }
+
+    private void processState(RuleFrame frame, ATNState state, int tokenIndex) {
+        if (isOverBudget()) {
+            stop();
+            return;
+        }
+        ++statesProcessed;
+        frame.extendReach(tokenIndex);
+
+        tracer.stateVisited(state, tokenStartIndex + tokenIndex, tokenIndex >= tokenCount - 1, callStack);
+
+        if (state.getStateType() == ATNState.RULE_STOP) {
+            // Record the token index we are at, to report it to the caller.
+            shortcutMap.addEndPosition(frameCount - 1, tokenIndex);
+            return;
+        }
+
+        processTransitions(frame, state, tokenIndex, 0);
+    }
+
+    /**
+     * Processes the outgoing transitions of the given state, starting with the given transition. Stops at a rule transition
+     * which needs a walk of the called rule, which is then continued by the caller once that rule is done.
+     */
+    private void processTransitions(RuleFrame frame, ATNState state, int tokenIndex, int firstTransition) {
+        int currentSymbol = tokens[tokenOffset + tokenIndex];
+        boolean atCaret = tokenIndex >= tokenCount - 1;
+
+        if (firstTransition == 0 && canFork(state, tokenIndex)) {
+            forkBranches(frame, state, tokenIndex);
+            return;
+        }
+
+        for (int i = firstTransition; i < state.getNumberOfTransitions(); i++) {
+            Transition transition = state.transition(i);
+            switch (transition.getSerializationType()) {
+                case Transition.RULE: {
+                    frame.suspend(state, tokenIndex, i + 1);
+                    if (enterRule(transition.target, tokenIndex, ((RuleTransition) transition).precedence)) {
+                        return;
+                    }
+                    frame.nextTransition = -1;
+                    break;
+                }
+
+                case Transition.PREDICATE: {
+                    if (checkPredicate((PredicateTransition) transition)) {
+                        pipeline.push(transition.target.stateNumber, tokenIndex);
+                    }
+                    break;
+                }
+
+                case Transition.PRECEDENCE: {
+                    if (checkPrecedence(frame, (PrecedencePredicateTransition) transition)) {
+                        pipeline.push(transition.target.stateNumber, tokenIndex);
+                    }
+                    break;
+                }
+
+                case Transition.WILDCARD: {
+                    if (atCaret) {
+                        if (!translateToRuleIndex(callStack)) {
+                            tracer.tokenSetCollected(engine.getUserTokens(), ignoredTokens);
+                            putTokenSet(engine.getUserTokens(), ignoredTokens);
+                        }
+                    } else {
+                        pipeline.push(transition.target.stateNumber, tokenIndex + 1);
+                    }
+                    break;
+                }
+
+                default: {
+                    if (transition.isEpsilon()) {
+                        // Jump over simple states with a single outgoing epsilon transition.
+                        pipeline.push(transition.target.stateNumber, tokenIndex);
+                        continue;
+                    }
+
+                    IntBitSet set = engine.getTransitionTokens(transition);
+                    if (set != null) {
+                        if (atCaret) {
+                            if (!translateToRuleIndex(callStack)) {
+                                if (set.size() == 1) {
+                                    int symbol = set.next(set.getMin());
+                                    if (!ignoredTokens.contains(symbol)) {
+                                        tracer.tokenCollected(symbol);
+                                        putToken(symbol, engine.getFollowingTokens(transition.target.stateNumber, ignoredTokens));
+                                    }
+                                } else {
+                                    // Typically a NOT_SET transition: the tokens are kept as a set, which is only
+                                    // expanded if the caller asks for the single tokens.
+                                    tracer.tokenSetCollected(set, ignoredTokens);
+                                    putTokenSet(set, ignoredTokens);
+                                }
+                            }
+                        } else {
+                            if (set.contains(currentSymbol)) {
+                                tracer.tokenConsumed(currentSymbol, tokenStartIndex + tokenIndex);
+                                pipeline.push(transition.target.stateNumber, tokenIndex + 1);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Walks the rule chain upwards to see if that matches any of the preferred rules.
+     * If found, that rule is added to the collection candidates and true is returned.
+     */
+    private boolean translateToRuleIndex(IntList ruleStack) {
+        return translateToRuleIndex(IntLists.empty(), ruleStack);
+    }
+
+    /**
+     * The same for the rule stack made of the given base stack (which contains no preferred rule) and the given
+     * path, without building that stack.
+     */
+    private boolean translateToRuleIndex(IntList baseStack, IntList path) {
+        if (preferredRules.isEmpty()) {
+            return false;
+        }
+
+        // Loop over the rule stack from highest to lowest rule level. This way we properly handle the higher rule
+        // if it contains a lower one that is also a preferred rule.
+        for (int i = 0; i < path.size(); i++) {
+            int rule = path.get(i);
+            if (preferredRules.contains(rule)) {
+                // Add the rule to our candidates list along with the current rule path,
+                // but only if there isn't already an entry like that.
+                if (putRule(rule, baseStack, path, i)) {
+                    tracer.ruleCollected(rule);
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private FollowSetsHolder findFollowSets(ATNState startState) {
+        FollowSetsHolder followSets = engine.findFollowSets(startState);
+        return followSets != null ? followSets : root.requestFollowSets.get(startState.stateNumber);
+    }
+
+    /**
+     * Returns the follow sets for the given rule start state, determining them if needed. The engine keeps those which
+     * don't depend on the request, we keep the others until the next request.
+     */
+    FollowSetsHolder getFollowSets(ATNState startState) {
+        FollowSetsHolder followSets = engine.getFollowSets(startState, this::checkPredicate);
+        PredicateScope scope = followSets.getPredicateScope();
+        if (scope == PredicateScope.REQUEST || scope == PredicateScope.CONTEXT) {
+            root.requestFollowSets.putIfAbsent(startState.stateNumber, followSets);
+        }
+        return followSets;
+    }
+
+    private boolean checkPredicate(PredicateTransition transition) {
+        PredicateScope scope = engine.getPredicateScope(transition.predIndex);
+        int cached = scope == PredicateScope.CONFIGURATION ? engine.getConfigurationResult(transition.predIndex)
+                : root.predicateResults[transition.predIndex];
+        if (cached != 0) {
+            return cached == 2;
+        }
+        predicateEvaluations++;
+        boolean result = engine.checkPredicate(transition);
+        if (scope == PredicateScope.CONFIGURATION) {
+            engine.setConfigurationResult(transition.predIndex, result);
+        } else if (scope == PredicateScope.REQUEST) {
+            root.predicateResults[transition.predIndex] = (byte) (result ? 2 : 1);
+        }
+        return result;
+    }
+
+    /**
+     * Evaluates a precedence predicate of a left-recursive rule, like the parser does: an operator of the given precedence
+     * can only be matched if that is not lower than the precedence the rule was called with.
+     */
+    private boolean checkPrecedence(RuleFrame frame, PrecedencePredicateTransition transition) {
+        predicateEvaluations++;
+        return transition.precedence >= frame.precedence;
+    }
+
+    private void putToken(int token, IntList following) {
+        if (log != null) {
+            log.putToken(token, following);
+        } else {
+            candidates.putToken(token, following);
+        }
+    }
+
+    /**
+     * Adds the given tokens, except for the excluded ones, without following lists (like putToken with an empty list
+     * for each of them).
+     */
+    private void putTokenSet(IntBitSet tokens, IntBitSet excluded) {
+        if (log != null) {
+            log.putTokenSet(tokens, excluded);
+        } else {
+            candidates.putTokenSet(tokens, excluded);
+        }
+    }
+
+    /**
+     * Adds a token with its following list, or replaces the list of an existing entry with an empty list if they differ.
+     */
+    private void mergeToken(int token, IntList following) {
+        if (log != null) {
+            log.mergeToken(token, following);
+        } else if (!candidates.containsToken(token)) {
+            candidates.putToken(token, following);
+        } else {
+            // More than one following list for the same symbol.
+            if (!Objects.equals(candidates.getToken(token), following)) {
+                candidates.putToken(token, IntLists.empty());
+            }
+        }
+    }
+
+    /**
+     * Adds a rule with the given path, unless there is already an entry like that. Returns true if the rule was added
+     * (or logged).
+     */
+    private boolean putRule(int ruleIndex, IntList path) {
+        return putRule(ruleIndex, IntLists.empty(), path, path.size());
+    }
+
+    /**
+     * The same with a path made of the base stack followed by the first (length - base stack size) entries of the given
+     * path. The path list is only built if the rule is actually added.
+     */
+    private boolean putRule(int ruleIndex, IntList baseStack, IntList path, int length) {
+        if (log == null) {
+            // There is one entry per rule: same path? If so don't add a new (duplicate) entry.
+            IntList existing = candidates.getRule(ruleIndex);
+            if (existing != null && existing.size() == baseStack.size() + length && startsWith(baseStack, path, existing)) {
+                return false;
+            }
+        }
+
+        IntList fullPath = new ArrayIntList(baseStack);
+        for (int i = 0; i < length; i++) {
+            fullPath.add(path.get(i));
+        }
+        if (log != null) {
+            log.putRule(ruleIndex, fullPath);
+        } else {
+            candidates.putRule(ruleIndex, fullPath);
+        }
+        return true;
+    }
+
+    /**
+     * Tells whether the given list (not longer than the base stack and the path) starts with the base stack followed by
+     * the path.
+     */
+    private static boolean startsWith(IntList baseStack, IntList path, IntList list) {
+        int baseSize = baseStack.size();
+        for (int i = 0; i < list.size(); i++) {
+            int value = i < baseSize ? baseStack.get(i) : path.get(i - baseSize);
+            if (value != list.get(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Looks up the end positions of the given rule at the given token index: in our own shortcut map or, in parallel mode,
+     * in those of the forking sessions (which wait for us) and in the shared one. Entries from other maps are copied
+     * to ours.
+     */
+    private long lookupShortcut(int memoKey, int tokenIndex) {
+        long entry = shortcutMap.get(memoKey, tokenIndex);
+        if (entry != 0 || sharedShortcuts == null) {
+            return entry;
+        }
+
+        for (CompletionSession session = parent; session != null; session = session.parent) {
+            long found = session.shortcutMap.get(memoKey, tokenIndex);
+            if (found != 0) {
+                return shortcutMap.put(memoKey, tokenIndex, session.shortcutMap.copyPositions(found, 0), 0,
+                        session.shortcutMap.getReach(memoKey, tokenIndex));
+            }
+        }
+        int[] shared = sharedShortcuts.get(memoKey, tokenIndex);
+        if (shared != null) {
+            return shortcutMap.put(memoKey, tokenIndex, shared, 1, shared[0]);
+        }
+        return 0;
+    }
+
+    /**
+     * Tells whether the transitions of the given state are the branches of a decision worth walking in parallel.
+     */
+    private boolean canFork(ATNState state, int tokenIndex) {
+        if (pool == null || state.getNumberOfTransitions() < 2 || tokenCount - 1 - tokenIndex < forkThreshold
+                || forkDepth >= MAX_FORK_DEPTH || ForkJoinTask.getSurplusQueuedTaskCount() > MAX_SURPLUS_TASKS) {
+            return false;
+        }
+        for (Transition transition : state.getTransitions()) {
+            if (!transition.isEpsilon() || transition.getSerializationType() == Transition.RULE) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Walks the branches of the given decision state as parallel tasks and takes over their results, in the order
+     * the sequential walk would have walked them (i.e. last branch first, as the pipeline is a stack).
+     */
+    private void forkBranches(RuleFrame frame, ATNState state, int tokenIndex) {
+        List<BranchWalk> walks = new ArrayList<>(state.getNumberOfTransitions());
+        for (Transition transition : state.getTransitions()) {
+            if (transition.getSerializationType() == Transition.PREDICATE
+                    && !checkPredicate((PredicateTransition) transition)) {
+                continue;
+            }
+            if (transition.getSerializationType() == Transition.PRECEDENCE
+                    && !checkPrecedence(frame, (PrecedencePredicateTransition) transition)) {
+                continue;
+            }
+            walks.add(new BranchWalk(newChild(), frame, transition.target, tokenIndex));
+        }
+
+        if (ForkJoinTask.getPool() == pool) {
+            ForkJoinTask.invokeAll(walks);
+        } else {
+            pool.invoke(ForkJoinTask.adapt(() -> ForkJoinTask.invokeAll(walks)));
+        }
+
+        for (int i = walks.size() - 1; i >= 0; i--) {
+            CompletionSession child = walks.get(i).session;
+            addStatistics(child);
+            frame.extendReach(child.frames[0].reach);
+            shortcutMap.addEndPositions(frameCount - 1, child.shortcutMap, 0);
+            absorb(child.log);
+            if (child.stopped) {
+                stopped = true;
+            }
+            root.idleChildren.add(child);
+        }
+    }
+
+    private CompletionSession newChild() {
+        CompletionSession child = root.idleChildren.poll();
+        if (child == null) {
+            child = new CompletionSession(engine);
+            child.root = root;
+            child.log = new CandidateLog();
+        }
+
+        child.ignoredTokens = ignoredTokens;
+        child.tracer = tracer;
+        child.preferredRules = preferredRules;
+        child.pool = pool;
+        child.forkThreshold = forkThreshold;
+        child.sharedShortcuts = sharedShortcuts;
+        child.parent = this;
+        child.forkDepth = forkDepth + 1;
+        child.log.clear();
+        child.tokens = tokens;
+        child.tokenOffset = tokenOffset;
+        child.tokenCount = tokenCount;
+        child.tokenStartIndex = tokenStartIndex;
+        child.resetStatistics();
+        child.stateLimit = stateLimit;
+        child.cancellationToken = cancellationToken;
+        child.hasDeadline = hasDeadline;
+        child.deadline = deadline;
+        child.checkCountdown = CHECK_INTERVAL;
+        child.stopped = false;
+        child.sharedStates = sharedStates;
+        child.shortcutMap.reset(engine.getMemoKeyCount(), tokenCount);
+        child.callStack.clear();
+        child.callStack.addAll(callStack);
+        return child;
+    }
+
+    /**
+     * Takes over the candidate log of a finished task: replays it (skipping the rule walks we know already, as the sequential
+     * walk would have skipped them) or, in a child session, adds it to our own log. The rule walks recorded in the log
+     * are added to our shortcut map.
+     */
+    private void absorb(CandidateLog childLog) {
+        if (log != null) {
+            log.append(childLog);
+        }
+        int i = 0;
+        while (i < childLog.size()) {
+            int code = childLog.get(i);
+            switch (code) {
+                case CandidateLog.ABANDONED:
+                    i += 4;
+                    break;
+                case CandidateLog.BEGIN:
+                    if (log == null && shortcutMap.get(childLog.get(i + 1), childLog.get(i + 2)) != 0) {
+                        i += childLog.get(i + 3);
+                    } else {
+                        i += 4;
+                    }
+                    break;
+                case CandidateLog.END: {
+                    int memoKey = childLog.get(i + 1);
+                    int tokenIndex = childLog.get(i + 2);
+                    int count = childLog.get(i + 4);
+                    if (shortcutMap.get(memoKey, tokenIndex) == 0) {
+                        int[] endPositions = new int[count];
+                        for (int j = 0; j < count; j++) {
+                            endPositions[j] = childLog.get(i + 5 + j);
+                        }
+                        shortcutMap.put(memoKey, tokenIndex, endPositions, 0, childLog.get(i + 3));
+                    }
+                    i += 5 + count;
+                    break;
+                }
+                case CandidateLog.PUT_TOKEN_SET:
+                    if (log == null) {
+                        putTokenSet(childLog.getSet(childLog.get(i + 1)), childLog.getSet(childLog.get(i + 2)));
+                    }
+                    i += 3;
+                    break;
+                default:
+                    if (log == null) {
+                        IntList list = childLog.getList(childLog.get(i + 2));
+                        if (code == CandidateLog.PUT_TOKEN) {
+                            putToken(childLog.get(i + 1), list);
+                        } else if (code == CandidateLog.MERGE_TOKEN) {
+                            mergeToken(childLog.get(i + 1), list);
+                        } else {
+                            putRule(childLog.get(i + 1), list);
+                        }
+                    }
+                    i += 3;
+                    break;
+            }
+        }
+    }
+
+    // A decision branch walked by a child session.
+    private static final class BranchWalk extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final CompletionSession session;
+        private final ATNState ruleStartState;
+        private final int ruleTokenIndex;
+        private final int precedence;
+        private final int memoKey;
+        private final ATNState branch;
+        private final int tokenIndex;
+
+        BranchWalk(CompletionSession session, RuleFrame frame, ATNState branch, int tokenIndex) {
+            this.session = session;
+            this.ruleStartState = frame.startState;
+            this.ruleTokenIndex = frame.tokenIndex;
+            this.precedence = frame.precedence;
+            this.memoKey = frame.memoKey;
+            this.branch = branch;
+            this.tokenIndex = tokenIndex;
+        }
+
+        @Override
+        protected void compute() {
+            session.walkBranch(ruleStartState, ruleTokenIndex, precedence, memoKey, branch, tokenIndex);
+        }
+
+    }
+
+}
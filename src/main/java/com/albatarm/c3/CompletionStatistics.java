@@ -0,0 +1,92 @@
+package com.albatarm.c3;
+
+// What a single code completion request did: the ATN states it processed, how well the shortcut map and the
+// follow set cache served it, the rules it walked, the predicates it evaluated and the time it took.
+// In parallel mode the numbers include the work of all tasks.
+public final class CompletionStatistics {
+
+    public static final CompletionStatistics EMPTY = new CompletionStatistics(0, 0, 0, 0, 0, 0, 0, 0, false);
+
+    private final long statesProcessed;
+    private final long shortcutHits;
+    private final long shortcutMisses;
+    private final long followSetHits;
+    private final long followSetComputations;
+    private final long rulesEntered;
+    private final long predicateEvaluations;
+    private final long elapsedNanos;
+    private final boolean partial;
+
+    public CompletionStatistics(long statesProcessed, long shortcutHits, long shortcutMisses, long followSetHits,
+            long followSetComputations, long rulesEntered, long predicateEvaluations, long elapsedNanos, boolean partial) {
+        this.statesProcessed = statesProcessed;
+        this.shortcutHits = shortcutHits;
+        this.shortcutMisses = shortcutMisses;
+        this.followSetHits = followSetHits;
+        this.followSetComputations = followSetComputations;
+        this.rulesEntered = rulesEntered;
+        this.predicateEvaluations = predicateEvaluations;
+        this.elapsedNanos = elapsedNanos;
+        this.partial = partial;
+    }
+
+    public long getStatesProcessed() {
+        return statesProcessed;
+    }
+
+    /**
+     * The number of rule walks taken from the shortcut map.
+     */
+    public long getShortcutHits() {
+        return shortcutHits;
+    }
+
+    public long getShortcutMisses() {
+        return shortcutMisses;
+    }
+
+    public long getFollowSetHits() {
+        return followSetHits;
+    }
+
+    /**
+     * The number of rules whose follow sets were not cached yet.
+     */
+    public long getFollowSetComputations() {
+        return followSetComputations;
+    }
+
+    /**
+     * The number of rules actually walked (i.e. without shortcut, which could match the input).
+     */
+    public long getRulesEntered() {
+        return rulesEntered;
+    }
+
+    public long getPredicateEvaluations() {
+        return predicateEvaluations;
+    }
+
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    /**
+     * Tells whether the request was stopped by its budget or cancelled.
+     */
+    public boolean isPartial() {
+        return partial;
+    }
+
+    @Override
+    public String toString() {
+        return "states: " + statesProcessed
+                + ", shortcut hits/misses: " + shortcutHits + "/" + shortcutMisses
+                + ", follow set hits/computations: " + followSetHits + "/" + followSetComputations
+                + ", rules entered: " + rulesEntered
+                + ", predicates: " + predicateEvaluations
+                + ", elapsed: " + elapsedNanos / 1000 + "us"
+                + (partial ? " (partial)" : "");
+    }
+
+}
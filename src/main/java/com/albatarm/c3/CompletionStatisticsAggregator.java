@@ -0,0 +1,66 @@
+package com.albatarm.c3;
+
+import java.util.concurrent.atomic.LongAdder;
+
+// A completion listener which sums up the statistics of all requests, cheap enough to stay enabled in production.
+// Use snapshot() to read the totals (e.g. for a metrics exporter) and reset() to start over.
+public final class CompletionStatisticsAggregator implements CompletionListener {
+
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder partialRequests = new LongAdder();
+    private final LongAdder statesProcessed = new LongAdder();
+    private final LongAdder shortcutHits = new LongAdder();
+    private final LongAdder shortcutMisses = new LongAdder();
+    private final LongAdder followSetHits = new LongAdder();
+    private final LongAdder followSetComputations = new LongAdder();
+    private final LongAdder rulesEntered = new LongAdder();
+    private final LongAdder predicateEvaluations = new LongAdder();
+    private final LongAdder elapsedNanos = new LongAdder();
+
+    @Override
+    public void requestCompleted(CompletionStatistics statistics) {
+        requests.increment();
+        if (statistics.isPartial()) {
+            partialRequests.increment();
+        }
+        statesProcessed.add(statistics.getStatesProcessed());
+        shortcutHits.add(statistics.getShortcutHits());
+        shortcutMisses.add(statistics.getShortcutMisses());
+        followSetHits.add(statistics.getFollowSetHits());
+        followSetComputations.add(statistics.getFollowSetComputations());
+        rulesEntered.add(statistics.getRulesEntered());
+        predicateEvaluations.add(statistics.getPredicateEvaluations());
+        elapsedNanos.add(statistics.getElapsedNanos());
+    }
+
+    public long getRequests() {
+        return requests.sum();
+    }
+
+    public long getPartialRequests() {
+        return partialRequests.sum();
+    }
+
+    /**
+     * Returns the totals of all requests so far (the result is partial if any request was).
+     */
+    public CompletionStatistics snapshot() {
+        return new CompletionStatistics(statesProcessed.sum(), shortcutHits.sum(), shortcutMisses.sum(),
+                followSetHits.sum(), followSetComputations.sum(), rulesEntered.sum(), predicateEvaluations.sum(),
+                elapsedNanos.sum(), partialRequests.sum() > 0);
+    }
+
+    public void reset() {
+        requests.reset();
+        partialRequests.reset();
+        statesProcessed.reset();
+        shortcutHits.reset();
+        shortcutMisses.reset();
+        followSetHits.reset();
+        followSetComputations.reset();
+        rulesEntered.reset();
+        predicateEvaluations.reset();
+        elapsedNanos.reset();
+    }
+
+}
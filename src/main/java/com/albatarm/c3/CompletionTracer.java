@@ -0,0 +1,61 @@
+package com.albatarm.c3;
+
+import org.antlr.v4.runtime.atn.ATNState;
+
+import com.albatarm.c3.collection.IntBitSet;
+import com.albatarm.c3.collection.IntList;
+
+// Hooks into the ATN walk of a completion request, for debugging. All events do nothing by default and the walk passes
+// only values it has at hand anyway, so with NONE (the default) the calls are inlined away by the JIT.
+// Token indexes are token stream indexes. In parallel mode the events of the tasks come from several threads.
+public interface CompletionTracer {
+
+    CompletionTracer NONE = new CompletionTracer() {
+    };
+
+    /**
+     * A rule is walked at the given token index (it wasn't walked there before and can match the input).
+     */
+    default void ruleEntered(int ruleIndex, int tokenIndex) {
+    }
+
+    /**
+     * The walk of a rule is done.
+     */
+    default void ruleExited(int ruleIndex, int tokenIndex) {
+    }
+
+    /**
+     * The end positions of a rule at the given token index are known from a previous walk.
+     */
+    default void shortcutTaken(int ruleIndex, int tokenIndex) {
+    }
+
+    /**
+     * An ATN state is processed, with the rules being walked (outermost first).
+     */
+    default void stateVisited(ATNState state, int tokenIndex, boolean atCaret, IntList callStack) {
+    }
+
+    default void tokenConsumed(int tokenType, int tokenIndex) {
+    }
+
+    default void tokenCollected(int tokenType) {
+    }
+
+    /**
+     * A set of tokens (e.g. for a wildcard) is collected, except for the excluded (ignored) ones.
+     */
+    default void tokenSetCollected(IntBitSet tokens, IntBitSet excluded) {
+    }
+
+    default void ruleCollected(int ruleIndex) {
+    }
+
+    /**
+     * The request ran out of its budget or was cancelled.
+     */
+    default void walkStopped(int statesProcessed) {
+    }
+
+}
@@ -1,41 +1,46 @@
 package com.albatarm.c3;
 
-import org.antlr.v4.runtime.misc.IntervalSet;
-
+import com.albatarm.c3.collection.IntBitSet;
 import com.albatarm.c3.collection.IntList;
 import com.albatarm.c3.collection.IntLists;
 
 // A record for a follow set along with the path at which this set was found.
-// If there is only a single symbol in the interval set then we also collect and store tokens which follow
-// this symbol directly in its rule (i.e. there is no intermediate rule transition). Only single label transitions
-// are considered. This is useful if you have a chain of tokens which can be suggested as a whole, because there is
-// a fixed sequence in the grammar.
+// For the tokens of a transition we also keep the state the transition leads to. The tokens which follow directly from
+// there in the same rule (see CodeCompletionEngine.getFollowingTokens) can be suggested together with the token, if
+// there is a fixed sequence in the grammar. That chain depends on the ignored tokens, so it is only determined when
+// candidates are collected, which keeps the follow sets independent of the configuration.
 public class FollowSetWithPath {
 
-    private final IntervalSet intervals;
+    private final IntBitSet tokens;
     private final IntList path;
-    private final IntList following;
+    private final int followingState;
 
-    public FollowSetWithPath(IntervalSet intervals, IntList path) {
-        this(intervals, path, IntLists.empty());
+    public FollowSetWithPath(IntBitSet tokens, IntList path) {
+        this(tokens, path, -1);
     }
 
-    public FollowSetWithPath(IntervalSet intervals, IntList path, IntList following) {
-        this.intervals = intervals;
-        this.path = path;
-        this.following = following;
+    public FollowSetWithPath(IntBitSet tokens, IntList path, int followingState) {
+        this.tokens = tokens;
+        this.path = IntLists.copyOf(path);
+        this.followingState = followingState;
     }
 
-    public IntervalSet getIntervals() {
-        return intervals;
+    /**
+     * The tokens of this set, as bitset over the token types of the grammar (from EPSILON on). Don't modify it.
+     */
+    public IntBitSet getTokens() {
+        return tokens;
     }
 
     public IntList getPath() {
-        return IntLists.unmodifiable(path);
+        return path;
     }
 
-    public IntList getFollowing() {
-        return IntLists.unmodifiable(following);
+    /**
+     * The number of the ATN state the chain of following tokens starts at, -1 if there is none.
+     */
+    public int getFollowingState() {
+        return followingState;
     }
 
 }
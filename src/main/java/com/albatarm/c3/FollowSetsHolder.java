@@ -2,26 +2,36 @@ package com.albatarm.c3;
 
 import java.util.List;
 
-import org.antlr.v4.runtime.misc.IntervalSet;
-
+import com.albatarm.c3.collection.IntBitSet;
 import com.google.common.collect.ImmutableList;
 
 // A list of follow sets (for a given state number) + all of them combined for quick hit tests.
 // This data is static in nature (because the used ATN states are part of a static struct: the ATN).
-// Hence it can be shared between all C3 instances, however it dependes on the actual parser class (type).
+// Hence it can be shared between all C3 instances, however it depends on the actual ATN (one per parser class).
+// That doesn't hold for follow sets which crossed semantic predicates, they depend on their results.
 public class FollowSetsHolder {
 
     private final ImmutableList<FollowSetWithPath> sets;
-    private final IntervalSet combined = new IntervalSet();
+    private final IntBitSet combined;
+    private final PredicateScope predicateScope;
+
+    public FollowSetsHolder(IntBitSet empty, List<FollowSetWithPath> sets) {
+        this(empty, sets, null);
+    }
 
-    public FollowSetsHolder(List<FollowSetWithPath> sets) {
+    public FollowSetsHolder(IntBitSet empty, List<FollowSetWithPath> sets, PredicateScope predicateScope) {
         this.sets = ImmutableList.copyOf(sets);
+        this.predicateScope = predicateScope;
+        this.combined = empty.emptyCopy();
         for (FollowSetWithPath set : sets) {
-            combined.addAll(set.getIntervals());
+            combined.addAll(set.getTokens());
         }
     }
 
-    public IntervalSet getCombined() {
+    /**
+     * The tokens of all sets. Don't modify it.
+     */
+    public IntBitSet getCombined() {
         return combined;
     }
 
@@ -29,4 +39,11 @@ public class FollowSetsHolder {
         return sets;
     }
 
+    /**
+     * The most volatile scope of the predicates crossed to determine the sets, null if none was crossed.
+     */
+    public PredicateScope getPredicateScope() {
+        return predicateScope;
+    }
+
 }
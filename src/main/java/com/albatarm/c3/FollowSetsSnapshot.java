@@ -0,0 +1,163 @@
+package com.albatarm.c3;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import org.antlr.v4.runtime.atn.ATN;
+import org.antlr.v4.runtime.atn.ATNSerializer;
+import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.misc.IntegerList;
+
+import com.albatarm.c3.collection.ArrayIntList;
+import com.albatarm.c3.collection.IntBitSet;
+import com.albatarm.c3.collection.IntList;
+
+// Reads and writes the precomputed follow sets of an ATN (per rule start state), so a new process doesn't have to
+// determine them again on its first completion requests.
+// The file starts with a magic number, a format version and a checksum of the serialized ATN. A snapshot is only
+// accepted for exactly the ATN it was written for. That is all the stored data depends on: the ignored tokens are
+// applied when the follow sets are collected, and follow sets crossing semantic predicates are never written, so the
+// snapshot fits any engine configuration. The token sets are stored as the words of their bitsets.
+public final class FollowSetsSnapshot {
+
+    private static final int MAGIC = 0x43334653; // "C3FS"
+    private static final int VERSION = 3;
+
+    private FollowSetsSnapshot() {
+    }
+
+    /**
+     * Computes a checksum of the given ATN, based on its serialized form.
+     */
+    public static long checksum(ATN atn) {
+        IntegerList serialized = ATNSerializer.getSerialized(atn);
+        CRC32 crc = new CRC32();
+        for (int i = 0; i < serialized.size(); i++) {
+            int value = serialized.get(i);
+            crc.update(value >>> 24);
+            crc.update(value >>> 16);
+            crc.update(value >>> 8);
+            crc.update(value);
+        }
+        return crc.getValue();
+    }
+
+    public static void write(Path file, ATN atn, Map<Integer, FollowSetsHolder> followSetsByState) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(checksum(atn));
+            out.writeInt(followSetsByState.size());
+            for (Map.Entry<Integer, FollowSetsHolder> entry : followSetsByState.entrySet()) {
+                out.writeInt(entry.getKey());
+                List<FollowSetWithPath> sets = entry.getValue().getSets();
+                out.writeInt(sets.size());
+                for (FollowSetWithPath set : sets) {
+                    for (long word : set.getTokens().getWords()) {
+                        out.writeLong(word);
+                    }
+                    writeList(out, set.getPath());
+                    out.writeInt(set.getFollowingState());
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads the follow sets stored in the given file through a memory mapped buffer.
+     * Returns null if the file was written for another ATN (or another version of it), throws an IOException if it is
+     * truncated or corrupt.
+     */
+    public static Map<Integer, FollowSetsHolder> read(Path file, ATN atn) throws IOException {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        try {
+            return read(buffer, file, atn);
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Truncated follow set snapshot: " + file, e);
+        }
+    }
+
+    private static Map<Integer, FollowSetsHolder> read(MappedByteBuffer buffer, Path file, ATN atn) throws IOException {
+        if (buffer.getInt() != MAGIC) {
+            throw new IOException("Not a follow set snapshot: " + file);
+        }
+        if (buffer.getInt() != VERSION || buffer.getLong() != checksum(atn)) {
+            return null;
+        }
+
+        IntBitSet noTokens = new IntBitSet(Token.EPSILON, atn.maxTokenType);
+        int wordCount = noTokens.getWords().length;
+        // The counts are checked against the bytes left, so a corrupt file can't make us allocate huge arrays.
+        int count = readCount(buffer, 8, file);
+        Map<Integer, FollowSetsHolder> result = new HashMap<>(count * 2);
+        for (int i = 0; i < count; i++) {
+            int stateNumber = checkState(buffer.getInt(), atn, file);
+            int setCount = readCount(buffer, wordCount * 8 + 8, file);
+            List<FollowSetWithPath> sets = new ArrayList<>(setCount);
+            for (int j = 0; j < setCount; j++) {
+                long[] words = new long[wordCount];
+                for (int k = 0; k < wordCount; k++) {
+                    words[k] = buffer.getLong();
+                }
+                IntList path = readList(buffer, file);
+                int followingState = buffer.getInt();
+                if (followingState != -1) {
+                    checkState(followingState, atn, file);
+                }
+                sets.add(new FollowSetWithPath(IntBitSet.of(Token.EPSILON, atn.maxTokenType, words), path, followingState));
+            }
+            result.put(stateNumber, new FollowSetsHolder(noTokens, sets));
+        }
+        return result;
+    }
+
+    private static void writeList(DataOutputStream out, IntList list) throws IOException {
+        out.writeInt(list.size());
+        for (int i = 0; i < list.size(); i++) {
+            out.writeInt(list.get(i));
+        }
+    }
+
+    private static IntList readList(MappedByteBuffer buffer, Path file) throws IOException {
+        int size = readCount(buffer, 4, file);
+        IntList list = new ArrayIntList();
+        for (int i = 0; i < size; i++) {
+            list.add(buffer.getInt());
+        }
+        return list;
+    }
+
+    /**
+     * Reads the number of the items which follow, each taking at least the given number of bytes.
+     */
+    private static int readCount(MappedByteBuffer buffer, int itemBytes, Path file) throws IOException {
+        int count = buffer.getInt();
+        if (count < 0 || count > buffer.remaining() / itemBytes) {
+            throw new IOException("Corrupt follow set snapshot: " + file);
+        }
+        return count;
+    }
+
+    private static int checkState(int stateNumber, ATN atn, Path file) throws IOException {
+        if (stateNumber < 0 || stateNumber >= atn.states.size() || atn.states.get(stateNumber) == null) {
+            throw new IOException("Corrupt follow set snapshot: " + file);
+        }
+        return stateNumber;
+    }
+
+}
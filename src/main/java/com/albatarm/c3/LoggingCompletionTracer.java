@@ -0,0 +1,158 @@
+package com.albatarm.c3;
+
+import org.antlr.v4.runtime.Vocabulary;
+import org.antlr.v4.runtime.atn.ATNState;
+import org.antlr.v4.runtime.atn.Transition;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.albatarm.c3.collection.IntBitSet;
+import com.albatarm.c3.collection.IntList;
+import com.albatarm.c3.collection.IntLists;
+
+// A tracer which logs the ATN walk (at debug level): every processed state, indented by the rule nesting, and the
+// consumed and collected tokens. Optionally with the outgoing transitions of each state and the rule stack.
+public final class LoggingCompletionTracer implements CompletionTracer {
+
+    private static final Logger LOG = LogManager.getLogger(LoggingCompletionTracer.class);
+
+    private static final String[] ATN_STATE_TYPE_MAP = {
+            "invalid",
+            "basic",
+            "rule start",
+            "block start",
+            "plus block start",
+            "star block start",
+            "token start",
+            "rule stop",
+            "block end",
+            "star loop back",
+            "star loop entry",
+            "plus loop back",
+            "loop end"
+    };
+
+    private final Vocabulary vocabulary;
+    private final String[] ruleNames;
+    // Enables transition printing for a state.
+    private final boolean withTransitions;
+    // Enables call stack printing for each state.
+    private final boolean withRuleStack;
+
+    public LoggingCompletionTracer(CodeCompletionEngine engine) {
+        this(engine, false, false);
+    }
+
+    public LoggingCompletionTracer(CodeCompletionEngine engine, boolean withTransitions, boolean withRuleStack) {
+        this.vocabulary = engine.getVocabulary();
+        this.ruleNames = engine.getRuleNames();
+        this.withTransitions = withTransitions;
+        this.withRuleStack = withRuleStack;
+    }
+
+    @Override
+    public void shortcutTaken(int ruleIndex, int tokenIndex) {
+        LOG.debug("======> shortcut");
+    }
+
+    @Override
+    public void stateVisited(ATNState state, int tokenIndex, boolean atCaret, IntList callStack) {
+        if (!LOG.isDebugEnabled()) {
+            return;
+        }
+
+        // The start state of a rule is shown at the level of the calling rule.
+        int depth = state.getStateType() == ATNState.RULE_START ? callStack.size() - 1 : callStack.size();
+        StringBuilder indentation = new StringBuilder();
+        for (int i = 0; i < depth; i++) {
+            indentation.append("  ");
+        }
+        printDescription(indentation.toString(), state, generateBaseDescription(state), tokenIndex, atCaret);
+        if (withRuleStack) {
+            printRuleState(callStack);
+        }
+    }
+
+    @Override
+    public void tokenConsumed(int tokenType, int tokenIndex) {
+        LOG.debug("=====> consumed: {}", vocabulary.getDisplayName(tokenType));
+    }
+
+    @Override
+    public void tokenCollected(int tokenType) {
+        LOG.debug("=====> collected: {}", vocabulary.getDisplayName(tokenType));
+    }
+
+    @Override
+    public void tokenSetCollected(IntBitSet tokens, IntBitSet excluded) {
+        tokens.forEach(token -> {
+            if (!excluded.contains(token)) {
+                tokenCollected(token);
+            }
+        });
+    }
+
+    @Override
+    public void ruleCollected(int ruleIndex) {
+        LOG.debug("=====> collected: {}", ruleNames[ruleIndex]);
+    }
+
+    @Override
+    public void walkStopped(int statesProcessed) {
+        LOG.debug("=====> stopped after {} states", statesProcessed);
+    }
+
+    private String generateBaseDescription(ATNState state) {
+        String stateValue = state.stateNumber == ATNState.INVALID_STATE_NUMBER ? "Invalid" : String.valueOf(state.stateNumber);
+        return "[" + stateValue + " " + ATN_STATE_TYPE_MAP[state.getStateType()] + "] in " + ruleNames[state.ruleIndex];
+    }
+
+    private void printDescription(String currentIndent, ATNState state, String baseDescription, int tokenIndex, boolean atCaret) {
+        StringBuilder output = new StringBuilder(currentIndent);
+        StringBuilder transitionDescription = new StringBuilder();
+        if (withTransitions) {
+            for (Transition transition : state.getTransitions()) {
+                StringBuilder labels = new StringBuilder();
+                IntList symbols = transition.label() != null ? IntLists.wrap(transition.label().toIntegerList()) : IntLists.empty();
+                if (symbols.size() > 2) {
+                    // Only print start and end symbols to avoid large lists in debug output.
+                    labels.setLength(0);
+                    labels.append(vocabulary.getDisplayName(symbols.get(0))).append(" .. ").append(vocabulary.getDisplayName(symbols.get(symbols.size() - 1)));
+                } else {
+                    for (int i = 0; i < symbols.size(); i++) {
+                        if (labels.length() > 0) {
+                            labels.append(", ");
+                        }
+                        int symbol = symbols.get(i);
+                        labels.append(vocabulary.getDisplayName(symbol));
+                    }
+                }
+                if (labels.length() == 0) {
+                    labels.setLength(0);
+                    labels.append("ε");
+                }
+                transitionDescription.append("\n").append(currentIndent).append("\t(").append(labels).append(") [")
+                        .append(transition.target.stateNumber).append(' ')
+                        .append(ATN_STATE_TYPE_MAP[transition.target.getStateType()]).append("] in ")
+                        .append(ruleNames[transition.target.ruleIndex]);
+            }
+        }
+
+        if (atCaret) {
+            output.append("<<").append(tokenIndex).append(">> ");
+        } else {
+            output.append("<").append(tokenIndex).append("> ");
+        }
+        LOG.debug("{}Current state: {}{}", output, baseDescription, transitionDescription);
+    }
+
+    private void printRuleState(IntList stack) {
+        if (stack.isEmpty()) {
+            LOG.debug("<empty stack>");
+            return;
+        }
+
+        stack.forEach(rule -> LOG.debug("{}", ruleNames[rule]));
+    }
+
+}
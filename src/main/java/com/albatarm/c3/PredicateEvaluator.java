@@ -0,0 +1,28 @@
+package com.albatarm.c3;
+
+import org.antlr.v4.runtime.Parser;
+
+// Evaluates the semantic predicates (identified by rule and predicate index) the ATN walk comes across.
+// There's no parser rule context during code completion, so predicates are evaluated without one.
+// An engine calls its evaluator on every thread which runs a request, and on the tasks of a parallel request, so the
+// evaluator of a shared engine must be thread-safe (ideally stateless).
+@FunctionalInterface
+public interface PredicateEvaluator {
+
+    // Considers all predicates as satisfied.
+    PredicateEvaluator ALWAYS_TRUE = (ruleIndex, predIndex) -> true;
+
+    boolean evaluate(int ruleIndex, int predIndex);
+
+    /**
+     * Evaluates predicates through the sempred method of the given parser. The predicates are run with a null context
+     * against whatever state the parser is in: predicates which use the context (rule arguments, locals, labels) fail,
+     * and those which use members of the parser see it as it was left. A parser is not thread-safe either, so an engine
+     * with this evaluator must only be used by one thread at a time and not in parallel mode. Shared engines should be
+     * given a stateless evaluator instead.
+     */
+    static PredicateEvaluator of(Parser parser) {
+        return (ruleIndex, predIndex) -> parser.sempred(null, ruleIndex, predIndex);
+    }
+
+}
@@ -0,0 +1,21 @@
+package com.albatarm.c3;
+
+// Tells how long the result of a semantic predicate stays valid, so the code completion core can evaluate it once and
+// cache it by predicate index. Grammars often gate alternatives on flags (e.g. a language version or mode) which don't
+// change during a request, or even between requests.
+public enum PredicateScope {
+
+    // The predicate may give a different result whenever it's crossed (the default): it's never cached. The follow sets
+    // crossing it are determined (without a parser context) once per request.
+    CONTEXT,
+
+    // The predicate gives the same result during a request: it's evaluated at most once per request, the follow sets
+    // crossing it are determined once per request too.
+    REQUEST,
+
+    // The predicate gives the same result until the configuration it depends on changes: it's evaluated once for all
+    // sessions of the engine, until CompletionSession.invalidate() is called. The follow sets crossing it are kept by the
+    // engine until then as well.
+    CONFIGURATION
+
+}
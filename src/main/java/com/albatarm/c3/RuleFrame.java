@@ -0,0 +1,46 @@
+package com.albatarm.c3;
+
+import org.antlr.v4.runtime.atn.ATNState;
+
+// A rule being walked by the code completion core. Frames are kept on an explicit stack (and reused), instead of
+// walking called rules recursively.
+final class RuleFrame {
+
+    ATNState startState;
+    int tokenIndex;
+    // The precedence the rule was called with (for its precedence predicates) and its key in the shortcut map.
+    int precedence;
+    int memoKey;
+    // The largest token index looked at so far while walking the rule (including the rules it called).
+    int reach;
+    // The pipeline size when the rule was entered, the rule is done when the pipeline shrinks to that size again.
+    int pipelineBase;
+    // Set for the branch of a decision walked by a task (which is not a complete walk of the rule).
+    boolean partial;
+    // The position of the walk's record in the candidate log, for a walk running as a fork/join task.
+    int logMark;
+
+    // The state whose transitions were being processed when a called rule was entered, its token index and
+    // the transition to continue with once the called rule is done. The suspended transition is the rule transition
+    // at index nextTransition - 1.
+    ATNState suspendedState;
+    int suspendedTokenIndex;
+    int nextTransition = -1;
+
+    void suspend(ATNState state, int tokenIndex, int nextTransition) {
+        this.suspendedState = state;
+        this.suspendedTokenIndex = tokenIndex;
+        this.nextTransition = nextTransition;
+    }
+
+    void extendReach(int tokenIndex) {
+        if (tokenIndex > reach) {
+            reach = tokenIndex;
+        }
+    }
+
+    boolean isSuspended() {
+        return nextTransition >= 0;
+    }
+
+}
@@ -0,0 +1,36 @@
+package com.albatarm.c3;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+// The part of the shortcut map shared by the fork/join tasks of a request: the end positions of rule walks which
+// didn't reach the caret. Such a walk doesn't add candidates, so any task can use its result, no matter which task
+// walked the rule first.
+// Entries hold the reach of the walk, followed by the end positions.
+final class SharedShortcutTable {
+
+    private final AtomicReferenceArray<AtomicReferenceArray<int[]>> rows;
+    private final int width;
+
+    SharedShortcutTable(int ruleCount, int tokenCount) {
+        this.rows = new AtomicReferenceArray<>(ruleCount);
+        this.width = tokenCount;
+    }
+
+    /**
+     * Returns the reach and end positions for the given rule and token index, or null if not known yet.
+     */
+    int[] get(int ruleIndex, int tokenIndex) {
+        AtomicReferenceArray<int[]> row = rows.get(ruleIndex);
+        return row == null ? null : row.get(tokenIndex);
+    }
+
+    void put(int ruleIndex, int tokenIndex, int[] entry) {
+        AtomicReferenceArray<int[]> row = rows.get(ruleIndex);
+        if (row == null) {
+            rows.compareAndSet(ruleIndex, null, new AtomicReferenceArray<>(width));
+            row = rows.get(ruleIndex);
+        }
+        row.set(tokenIndex, entry);
+    }
+
+}
@@ -0,0 +1,231 @@
+package com.albatarm.c3;
+
+import java.util.Arrays;
+
+// A mapping of rule index + token stream position to end token positions, without any boxing.
+// A rule which has been visited before with the same input position will always produce the same output positions.
+// The "rule index" is actually the memo key of the rule (see CodeCompletionEngine.getMemoKey), which tells apart the
+// precedences a left-recursive rule is called with.
+//
+// Each rule gets a row (allocated on first use and kept for later requests) with one slot per token. A slot holds
+// the offset + 1 and the length of the rule's end positions in a shared position pool, 0 marks an unknown slot.
+// While a rule is walked, its end positions are collected in a bit set (one per nesting level), which is then
+// appended to the pool in ascending order when the rule is done.
+//
+// For incremental requests every slot also records its reach, the largest token index looked at while the rule was
+// walked. Slots are chained per reach, so after an edit only the slots which depend on a changed token (or on the
+// caret) are dropped, without scanning the whole table. The slots stored are listed, so a reset doesn't scan it either.
+final class ShortcutTable {
+
+    // An entry for a rule without end positions.
+    static final long EMPTY = 1L << 32;
+
+    // Compact the table with a full reset when it holds more garbage than this (plus twice the live data).
+    private static final int GARBAGE_SLACK = 1024;
+
+    private long[][] rows = new long[0][];
+    private int[][] reaches = new int[0][];
+    private int width;
+
+    private int[] positions = new int[64];
+    private int positionCount;
+    private int livePositions;
+
+    // The committed slots (rule and token index), linked into one chain per reach.
+    private int[] chainHeads = new int[0];
+    private int[] slotRules = new int[64];
+    private int[] slotTokens = new int[64];
+    private int[] slotNext = new int[64];
+    private int slotCount;
+    private int liveSlots;
+
+    private long[] pending = new long[0];
+    private int pendingWords;
+
+    /**
+     * Forgets all entries and prepares the table for a request with the given number of rules and tokens.
+     * Only the slots stored since the last reset are cleared, so the cost is that of the entries made rather than
+     * the size of the table (a child session of a fork is reset for every task).
+     */
+    void reset(int ruleCount, int tokenCount) {
+        if (rows.length < ruleCount) {
+            rows = Arrays.copyOf(rows, ruleCount);
+            reaches = Arrays.copyOf(reaches, ruleCount);
+        }
+        for (int slot = 0; slot < slotCount; slot++) {
+            rows[slotRules[slot]][slotTokens[slot]] = 0;
+        }
+        Arrays.fill(chainHeads, -1);
+        positionCount = 0;
+        livePositions = 0;
+        slotCount = 0;
+        liveSlots = 0;
+        resize(tokenCount);
+    }
+
+    /**
+     * Prepares the table for a request with the given number of rules and tokens, keeping only the entries whose reach
+     * is below the given token index (i.e. which don't depend on any token at or after it).
+     */
+    void retainBelow(int limit, int ruleCount, int tokenCount) {
+        if (rows.length < ruleCount
+                || slotCount > 2 * liveSlots + GARBAGE_SLACK
+                || positionCount > 2 * livePositions + GARBAGE_SLACK) {
+            reset(ruleCount, tokenCount);
+            return;
+        }
+
+        for (int reach = Math.max(limit, 0); reach < chainHeads.length; reach++) {
+            for (int slot = chainHeads[reach]; slot >= 0; slot = slotNext[slot]) {
+                long[] row = rows[slotRules[slot]];
+                int token = slotTokens[slot];
+                if (row[token] != 0) {
+                    livePositions -= length(row[token]);
+                    liveSlots--;
+                    row[token] = 0;
+                }
+            }
+            chainHeads[reach] = -1;
+        }
+        resize(tokenCount);
+    }
+
+    private void resize(int tokenCount) {
+        if (chainHeads.length < tokenCount) {
+            int oldLength = chainHeads.length;
+            chainHeads = Arrays.copyOf(chainHeads, tokenCount);
+            Arrays.fill(chainHeads, oldLength, tokenCount, -1);
+        }
+        width = tokenCount;
+        pendingWords = (tokenCount + 63) >>> 6;
+    }
+
+    /**
+     * Returns the entry for the given rule and token index, or 0 if the rule wasn't walked yet at this position.
+     */
+    long get(int ruleIndex, int tokenIndex) {
+        long[] row = rows[ruleIndex];
+        return row == null || tokenIndex >= row.length ? 0 : row[tokenIndex];
+    }
+
+    /**
+     * Returns the reach of a known entry for the given rule and token index.
+     */
+    int getReach(int ruleIndex, int tokenIndex) {
+        return reaches[ruleIndex][tokenIndex];
+    }
+
+    /**
+     * Starts collecting the end positions of a rule walked at the given nesting level.
+     */
+    void begin(int level) {
+        int from = level * pendingWords;
+        int to = from + pendingWords;
+        if (pending.length < to) {
+            pending = Arrays.copyOf(pending, Math.max(to, pending.length * 2));
+        }
+        Arrays.fill(pending, from, to, 0);
+    }
+
+    void addEndPosition(int level, int tokenIndex) {
+        pending[level * pendingWords + (tokenIndex >>> 6)] |= 1L << tokenIndex;
+    }
+
+    /**
+     * Adds the end positions collected at a level of another table (of the same size) to the given level.
+     */
+    void addEndPositions(int level, ShortcutTable from, int fromLevel) {
+        int to = level * pendingWords;
+        int source = fromLevel * from.pendingWords;
+        for (int word = 0; word < pendingWords; word++) {
+            pending[to + word] |= from.pending[source + word];
+        }
+    }
+
+    /**
+     * Moves the end positions collected at the given level to the pool and stores them for the rule + token index,
+     * together with the reach of the walk.
+     */
+    long commit(int level, int ruleIndex, int tokenIndex, int reach) {
+        int start = positionCount;
+        int from = level * pendingWords;
+        for (int word = 0; word < pendingWords; word++) {
+            long bits = pending[from + word];
+            while (bits != 0) {
+                if (positionCount == positions.length) {
+                    positions = Arrays.copyOf(positions, positionCount * 2);
+                }
+                positions[positionCount++] = (word << 6) + Long.numberOfTrailingZeros(bits);
+                bits &= bits - 1;
+            }
+        }
+        return store(ruleIndex, tokenIndex, start, reach);
+    }
+
+    /**
+     * Stores the given (ascending) end positions, starting at the given array index, for the rule + token index.
+     * Used for results taken from another table.
+     */
+    long put(int ruleIndex, int tokenIndex, int[] endPositions, int from, int reach) {
+        int start = positionCount;
+        int count = endPositions.length - from;
+        if (positionCount + count > positions.length) {
+            positions = Arrays.copyOf(positions, Math.max(positionCount + count, positions.length * 2));
+        }
+        System.arraycopy(endPositions, from, positions, positionCount, count);
+        positionCount += count;
+        return store(ruleIndex, tokenIndex, start, reach);
+    }
+
+    private long store(int ruleIndex, int tokenIndex, int start, int reach) {
+        long entry = ((long) (start + 1) << 32) | (positionCount - start);
+        long[] row = rows[ruleIndex];
+        if (row == null || row.length < width) {
+            row = row == null ? new long[width] : Arrays.copyOf(row, width);
+            rows[ruleIndex] = row;
+            reaches[ruleIndex] = reaches[ruleIndex] == null ? new int[width] : Arrays.copyOf(reaches[ruleIndex], width);
+        }
+        if (row[tokenIndex] != 0) {
+            // A recursive walk of the same rule at the same position, the outer walk wins.
+            livePositions -= length(row[tokenIndex]);
+            liveSlots--;
+        }
+        row[tokenIndex] = entry;
+        reaches[ruleIndex][tokenIndex] = reach;
+        livePositions += positionCount - start;
+        liveSlots++;
+
+        if (slotCount == slotRules.length) {
+            slotRules = Arrays.copyOf(slotRules, slotCount * 2);
+            slotTokens = Arrays.copyOf(slotTokens, slotCount * 2);
+            slotNext = Arrays.copyOf(slotNext, slotCount * 2);
+        }
+        slotRules[slotCount] = ruleIndex;
+        slotTokens[slotCount] = tokenIndex;
+        slotNext[slotCount] = chainHeads[reach];
+        chainHeads[reach] = slotCount++;
+        return entry;
+    }
+
+    static int start(long entry) {
+        return (int) (entry >>> 32) - 1;
+    }
+
+    static int length(long entry) {
+        return (int) entry;
+    }
+
+    int position(int index) {
+        return positions[index];
+    }
+
+    /**
+     * Copies the end positions of the given entry into a new array, after the given number of leading free slots.
+     */
+    int[] copyPositions(long entry, int offset) {
+        int[] result = new int[offset + length(entry)];
+        System.arraycopy(positions, start(entry), result, offset, length(entry));
+        return result;
+    }
+
+}
@@ -0,0 +1,40 @@
+package com.albatarm.c3;
+
+import java.util.Arrays;
+
+// The yet-to-be-processed ATN states of the rules currently being walked, as a stack of state number + token index
+// pairs packed into longs. The pipeline of a rule sits on top of the one of its caller, so a single (reused) array
+// serves the whole walk.
+final class StatePipeline {
+
+    private long[] entries = new long[64];
+    private int size;
+
+    void push(int stateNumber, int tokenIndex) {
+        if (size == entries.length) {
+            entries = Arrays.copyOf(entries, size * 2);
+        }
+        entries[size++] = ((long) stateNumber << 32) | (tokenIndex & 0xFFFFFFFFL);
+    }
+
+    long pop() {
+        return entries[--size];
+    }
+
+    int size() {
+        return size;
+    }
+
+    void clear() {
+        size = 0;
+    }
+
+    static int stateNumber(long entry) {
+        return (int) (entry >>> 32);
+    }
+
+    static int tokenIndex(long entry) {
+        return (int) entry;
+    }
+
+}
@@ -0,0 +1,251 @@
+package com.albatarm.c3.collection;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+// A set of ints within a fixed range [min, max] (e.g. the token types of a vocabulary, including EPSILON and EOF),
+// stored as a bitset. Contains, union and iteration neither branch on the set size nor allocate.
+// Values outside of the range are never contained, adding them fails.
+public final class IntBitSet {
+
+    private final int min;
+    private final int max;
+    private final long[] words;
+
+    public IntBitSet(int min, int max) {
+        if (max < min - 1) {
+            throw new IllegalArgumentException("Invalid range " + min + ".." + max);
+        }
+        this.min = min;
+        this.max = max;
+        this.words = new long[(max - min + 64) >>> 6];
+    }
+
+    public IntBitSet(IntBitSet other) {
+        this.min = other.min;
+        this.max = other.max;
+        this.words = other.words.clone();
+    }
+
+    /**
+     * Creates a set with the same range as this one, without any values.
+     */
+    public IntBitSet emptyCopy() {
+        return new IntBitSet(min, max);
+    }
+
+    public int getMin() {
+        return min;
+    }
+
+    public int getMax() {
+        return max;
+    }
+
+    public boolean inRange(int value) {
+        return value >= min && value <= max;
+    }
+
+    public void add(int value) {
+        if (!inRange(value)) {
+            throw new IndexOutOfBoundsException(value + " is not within " + min + ".." + max);
+        }
+        int bit = value - min;
+        words[bit >>> 6] |= 1L << bit;
+    }
+
+    /**
+     * Adds all values from a to b (inclusive).
+     */
+    public void addRange(int a, int b) {
+        if (a > b) {
+            return;
+        }
+        if (!inRange(a) || !inRange(b)) {
+            throw new IndexOutOfBoundsException(a + ".." + b + " is not within " + min + ".." + max);
+        }
+        int from = a - min;
+        int to = b - min;
+        int fromWord = from >>> 6;
+        int toWord = to >>> 6;
+        long fromMask = -1L << from;
+        long toMask = -1L >>> (63 - (to & 63));
+        if (fromWord == toWord) {
+            words[fromWord] |= fromMask & toMask;
+            return;
+        }
+        words[fromWord] |= fromMask;
+        for (int i = fromWord + 1; i < toWord; i++) {
+            words[i] = -1L;
+        }
+        words[toWord] |= toMask;
+    }
+
+    /**
+     * Adds all values of the given set, which must have the same range.
+     */
+    public void addAll(IntBitSet other) {
+        checkRange(other);
+        for (int i = 0; i < words.length; i++) {
+            words[i] |= other.words[i];
+        }
+    }
+
+    /**
+     * Adds the values of the given set which are not in the excluded one (both must have the same range).
+     */
+    public void addAllExcept(IntBitSet other, IntBitSet excluded) {
+        checkRange(other);
+        checkRange(excluded);
+        for (int i = 0; i < words.length; i++) {
+            words[i] |= other.words[i] & ~excluded.words[i];
+        }
+    }
+
+    public void remove(int value) {
+        if (inRange(value)) {
+            int bit = value - min;
+            words[bit >>> 6] &= ~(1L << bit);
+        }
+    }
+
+    public boolean contains(int value) {
+        if (!inRange(value)) {
+            return false;
+        }
+        int bit = value - min;
+        return (words[bit >>> 6] & (1L << bit)) != 0;
+    }
+
+    /**
+     * Tells whether this set and the given one (which must have the same range) have a value in common.
+     */
+    public boolean intersects(IntBitSet other) {
+        checkRange(other);
+        for (int i = 0; i < words.length; i++) {
+            if ((words[i] & other.words[i]) != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public boolean isEmpty() {
+        for (long word : words) {
+            if (word != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public int size() {
+        int size = 0;
+        for (long word : words) {
+            size += Long.bitCount(word);
+        }
+        return size;
+    }
+
+    public void clear() {
+        Arrays.fill(words, 0);
+    }
+
+    /**
+     * Returns the smallest value of the set which is not less than the given one, or {@code getMax() + 1} if there is
+     * none. Iterate with {@code for (int v = set.next(set.getMin()); v <= set.getMax(); v = set.next(v + 1))}.
+     */
+    public int next(int from) {
+        if (from < min) {
+            from = min;
+        }
+        if (from > max) {
+            return max + 1;
+        }
+        int bit = from - min;
+        int index = bit >>> 6;
+        long word = words[index] & (-1L << bit);
+        while (true) {
+            if (word != 0) {
+                int value = min + (index << 6) + Long.numberOfTrailingZeros(word);
+                return value <= max ? value : max + 1;
+            }
+            if (++index == words.length) {
+                return max + 1;
+            }
+            word = words[index];
+        }
+    }
+
+    /**
+     * Calls the consumer for all values, in ascending order.
+     */
+    public void forEach(IntConsumer consumer) {
+        for (int i = 0; i < words.length; i++) {
+            long word = words[i];
+            while (word != 0) {
+                consumer.accept(min + (i << 6) + Long.numberOfTrailingZeros(word));
+                word &= word - 1;
+            }
+        }
+    }
+
+    public int[] toArray() {
+        int[] result = new int[size()];
+        int[] index = { 0 };
+        forEach(value -> result[index[0]++] = value);
+        return result;
+    }
+
+    /**
+     * Returns the backing words, bit i standing for the value {@code getMin() + i}. Don't modify the array.
+     */
+    public long[] getWords() {
+        return words;
+    }
+
+    /**
+     * Creates a set from words as returned by {@link #getWords()}.
+     */
+    public static IntBitSet of(int min, int max, long[] words) {
+        IntBitSet set = new IntBitSet(min, max);
+        if (words.length != set.words.length) {
+            throw new IllegalArgumentException("Expected " + set.words.length + " words, got " + words.length);
+        }
+        System.arraycopy(words, 0, set.words, 0, words.length);
+        return set;
+    }
+
+    private void checkRange(IntBitSet other) {
+        if (other.min != min || other.max != max) {
+            throw new IllegalArgumentException("Range mismatch: " + other.min + ".." + other.max + " vs. " + min + ".." + max);
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof IntBitSet)) {
+            return false;
+        }
+        IntBitSet other = (IntBitSet) o;
+        return min == other.min && max == other.max && Arrays.equals(words, other.words);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * (31 * min + max) + Arrays.hashCode(words);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder result = new StringBuilder("{");
+        forEach(value -> {
+            if (result.length() > 1) {
+                result.append(", ");
+            }
+            result.append(value);
+        });
+        return result.append('}').toString();
+    }
+
+}
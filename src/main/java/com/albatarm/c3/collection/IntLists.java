@@ -40,6 +40,54 @@ public final class IntLists {
 
     }
 
+    private static class ImmutableIntList extends AbstractIntList {
+
+        private final int[] values;
+
+        public ImmutableIntList(int[] values) {
+            this.values = values;
+        }
+
+        @Override
+        public void add(int value) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int get(int index) {
+            if (index >= values.length) {
+                throw new NoSuchElementException();
+            }
+            return values[index];
+        }
+
+        @Override
+        public int set(int index, int newValue) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int removeAt(int index) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int size() {
+            return values.length;
+        }
+
+        @Override
+        public void clear() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int[] toArray() {
+            return values.clone();
+        }
+
+    }
+
     private static class UnmodifiableIntList implements IntList {
 
         private final IntList delegate;
@@ -222,9 +270,29 @@ public final class IntLists {
     }
 
     public static IntList unmodifiable(IntList list) {
+        if (list instanceof ImmutableIntList || list instanceof UnmodifiableIntList || list == EMPTY) {
+            return list;
+        }
         return new UnmodifiableIntList(list);
     }
 
+    /**
+     * Returns an immutable list of the given values.
+     */
+    public static IntList of(int... values) {
+        return values.length == 0 ? EMPTY : new ImmutableIntList(values.clone());
+    }
+
+    /**
+     * Returns an immutable copy of the given list (or the list itself if it is immutable already).
+     */
+    public static IntList copyOf(IntList list) {
+        if (list instanceof ImmutableIntList || list == EMPTY) {
+            return list;
+        }
+        return list.isEmpty() ? EMPTY : new ImmutableIntList(list.toArray());
+    }
+
     public static IntList wrap(IntegerList list) {
         return new IntegerListWrapper(list);
     }
@@ -0,0 +1,49 @@
+package com.albatarm.autocomplete;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import com.albatarm.autocomplete.app.CalcLang;
+
+import junit.framework.TestCase;
+
+public class GrammarSnapshotTest extends TestCase {
+
+    private static final Path GRAMMAR_FILE = Paths.get("src/main/antlr4/com/albatarm/lang/Calc.g4");
+    private static final Path TOKENS_FILE = Paths.get("target/generated-sources/antlr4/Calc.tokens");
+
+    public void testResourceNameKeepsPath() {
+        assertEquals("grammars/src/main/antlr4/com/albatarm/lang/Calc.bin", GrammarSnapshot.resourceName(GRAMMAR_FILE));
+        assertEquals("grammars/tmp/a/Calc.bin", GrammarSnapshot.resourceName(Paths.get("/tmp/a/Calc.g4")));
+        assertFalse(GrammarSnapshot.resourceName(Paths.get("a/Calc.g4")).equals(GrammarSnapshot.resourceName(Paths.get("b/Calc.g4"))));
+    }
+
+    public void testSourceHash() throws IOException {
+        long hash = GrammarSnapshot.sourceHash(GRAMMAR_FILE, TOKENS_FILE);
+        assertTrue(hash != 0);
+        assertEquals(hash, GrammarSnapshot.sourceHash(GRAMMAR_FILE, TOKENS_FILE));
+        assertEquals(0, GrammarSnapshot.sourceHash(Paths.get("missing.g4"), TOKENS_FILE));
+    }
+
+    public void testStaleSnapshotRejected() throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        new CalcLang().writeSnapshot(output);
+        byte[] bytes = output.toByteArray();
+        long hash = GrammarSnapshot.sourceHash(GRAMMAR_FILE, TOKENS_FILE);
+
+        AutoCompleter completer = GrammarSnapshot.read(new ByteArrayInputStream(bytes), hash);
+        assertEquals(new CalcLang().getAutoCompleter().getRuleNames(), completer.getRuleNames());
+        // Without the sources there's nothing to compare with.
+        assertNotNull(GrammarSnapshot.read(new ByteArrayInputStream(bytes), 0));
+        try {
+            GrammarSnapshot.read(new ByteArrayInputStream(bytes), hash + 1);
+            fail("Read a snapshot of another version of the grammar");
+        } catch (IOException e) {
+            // Expected.
+        }
+    }
+
+}
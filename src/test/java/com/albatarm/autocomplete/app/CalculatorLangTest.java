@@ -0,0 +1,37 @@
+package com.albatarm.autocomplete.app;
+
+import java.util.Set;
+
+import com.albatarm.autocomplete.AutoCompletionContext;
+
+import junit.framework.TestCase;
+
+public class CalculatorLangTest extends TestCase {
+
+    private static final LangEx LANG = new CalculatorLang();
+
+    public void testNoOperatorAfterOperator() {
+        Set<String> candidates = candidates("ln ( a ) ^ 2 ^ 3 - ");
+        for (String operator : new String[] { "'+'", "'-'", "'*'", "'/'", "'^'", "'<'", "'='", "'>'" }) {
+            assertFalse(operator + " in " + candidates, candidates.contains(operator));
+        }
+        assertTrue(candidates.contains("'('"));
+        assertTrue(candidates.contains("'ln'"));
+        assertTrue(candidates.contains("Ident"));
+        assertTrue(candidates.contains("Number"));
+    }
+
+    public void testOperatorAfterOperand() {
+        Set<String> candidates = candidates("ln ( a ) ^ 2 ^ 3 ");
+        assertTrue(candidates.contains("'-'"));
+        assertTrue(candidates.contains("'='"));
+        assertFalse(candidates.contains("Number"));
+    }
+
+    private static Set<String> candidates(String source) {
+        AutoCompletionContext<?> context = LANG.compile(source, Caret.at(1, source.length()));
+        context.collectCandidates();
+        return context.getCompletionCandidates();
+    }
+
+}
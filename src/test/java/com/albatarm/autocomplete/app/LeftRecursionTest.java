@@ -0,0 +1,53 @@
+package com.albatarm.autocomplete.app;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.TreeSet;
+
+import org.antlr.v4.runtime.LexerInterpreter;
+import org.antlr.v4.tool.Grammar;
+
+import com.albatarm.autocomplete.AutoCompletionContext;
+
+import junit.framework.TestCase;
+
+public class LeftRecursionTest extends TestCase {
+
+    private static final String GRAMMAR_FILE = "src/test/resources/com/albatarm/autocomplete/app/Expr.g4";
+    private static final String TOKENS_FILE = "src/test/resources/com/albatarm/autocomplete/app/Expr.tokens";
+
+    // The lexer is interpreted from the grammar, the test doesn't need generated code. The separators are the
+    // punctuation tokens: ';', '*', '+', '(', ')' and '.'.
+    private static final Grammar GRAMMAR = Grammar.load(GRAMMAR_FILE);
+    private static final LangEx LANG = new AbstractLangEx<LexerInterpreter>(GRAMMAR_FILE, TOKENS_FILE,
+            new HashSet<>(Arrays.asList(1, 3, 4, 5, 6, 7)), "root", GRAMMAR.getTokenDisplayNames(),
+            GRAMMAR::createLexerInterpreter) {
+    };
+
+    public void testOperandAfterOperator() {
+        assertCandidates("a + ", "'('", "ID", "NUM");
+        assertCandidates("a + b * ", "'('", "ID", "NUM");
+    }
+
+    public void testOperatorAfterOperand() {
+        assertCandidates("a +", 2, "'*'", "'+'", "'.' ID", "';'");
+        // A parenthesized expression is no primary, so no call.
+        assertCandidates("( a + b ) * c ;", 10, "'*'", "'+'", "';'");
+    }
+
+    public void testLongChain() {
+        assertCandidates("a + b + c + d + e + f + g + h + i + j + k ", "'*'", "'+'", "'.' ID", "';'");
+    }
+
+    private static void assertCandidates(String source, String... expected) {
+        assertCandidates(source, source.length(), expected);
+    }
+
+    private static void assertCandidates(String source, int offset, String... expected) {
+        AutoCompletionContext<?> context = LANG.compile(source, Caret.at(1, offset));
+        context.collectCandidates();
+        assertEquals(Arrays.asList(expected), new ArrayList<>(new TreeSet<>(context.getCompletionCandidates())));
+    }
+
+}
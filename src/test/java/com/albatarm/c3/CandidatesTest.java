@@ -0,0 +1,143 @@
+package com.albatarm.c3;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+import org.antlr.v4.runtime.ANTLRInputStream;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.Token;
+import org.antlr.v4.tool.Grammar;
+
+import com.albatarm.c3.collection.IntBitSet;
+import com.albatarm.c3.collection.IntLists;
+
+import junit.framework.TestCase;
+
+public class CandidatesTest extends TestCase {
+
+    // A wildcard and a NOT_SET transition, each next to an explicit token at the same position.
+    private static final String GRAMMAR_TEXT = "grammar Wild;\n"
+            + "root : stat+ ;\n"
+            + "stat : 'any' . ';' | 'any' ID '=' ';' | 'not' ~(ID | ';') ';' | 'not' NUM '+' ';' ;\n"
+            + "ID : [a-z]+ ;\n"
+            + "NUM : [0-9]+ ;\n"
+            + "STR : '\"' ~'\"'* '\"' ;\n"
+            + "WS : [ \\t\\r\\n]+ -> channel(HIDDEN) ;\n";
+
+    private Grammar grammar;
+    private int id;
+    private int num;
+    private int str;
+    private int semi;
+    private int assign;
+
+    @Override
+    protected void setUp() throws Exception {
+        grammar = new Grammar(GRAMMAR_TEXT);
+        id = grammar.getTokenType("ID");
+        num = grammar.getTokenType("NUM");
+        str = grammar.getTokenType("STR");
+        semi = grammar.getTokenType("';'");
+        assign = grammar.getTokenType("'='");
+    }
+
+    public void testWildcard() {
+        Candidates candidates = newEngine().newSession().collectCandidates(tokenTypes("any"), 1);
+
+        // Every user token but the ignored one, WS is a token type as well.
+        assertTrue(Arrays.toString(candidates.getTokens()), Arrays.equals(userTokensExcept(str), candidates.getTokens()));
+        assertFalse(candidates.containsToken(str));
+        assertTrue(candidates.containsToken(num));
+        assertEquals(IntLists.empty(), candidates.getFollowing(num));
+        assertNull(candidates.getFollowing(str));
+        // ID is also collected on its own, but the wildcard comes later in the walk and replaces its following list,
+        // as putting each token with an empty list did.
+        assertTrue(candidates.containsToken(id));
+        assertEquals(IntLists.empty(), candidates.getFollowing(id));
+    }
+
+    public void testNotSet() {
+        Candidates candidates = newEngine().newSession().collectCandidates(tokenTypes("not"), 1);
+
+        assertTrue(Arrays.toString(candidates.getTokens()),
+                Arrays.equals(userTokensExcept(str, id, semi), candidates.getTokens()));
+        assertFalse(candidates.containsToken(id));
+        assertFalse(candidates.containsToken(semi));
+        assertFalse(candidates.containsToken(str));
+        assertNull(candidates.getFollowing(id));
+        assertEquals(IntLists.empty(), candidates.getFollowing(assign));
+        assertEquals(IntLists.empty(), candidates.getFollowing(num));
+    }
+
+    public void testNoIgnoredTokens() {
+        Candidates candidates = CodeCompletionEngine.builder(grammar.atn, grammar.getVocabulary(), grammar.getRuleNames())
+                .build()
+                .newSession()
+                .collectCandidates(tokenTypes("any"), 1);
+
+        assertTrue(Arrays.equals(userTokensExcept(), candidates.getTokens()));
+        assertEquals(IntLists.empty(), candidates.getFollowing(str));
+    }
+
+    public void testPutTokenOverridesSet() {
+        IntBitSet set = new IntBitSet(Token.EPSILON, 10);
+        set.addRange(1, 10);
+        IntBitSet excluded = set.emptyCopy();
+        excluded.add(7);
+
+        Candidates candidates = Candidates.builder()
+                .putTokenSet(set, excluded)
+                .putToken(3, IntLists.of(4, 5))
+                .build();
+        assertTrue(Arrays.equals(new int[] { 1, 2, 3, 4, 5, 6, 8, 9, 10 }, candidates.getTokens()));
+        assertEquals(IntLists.of(4, 5), candidates.getFollowing(3));
+        assertEquals(IntLists.empty(), candidates.getFollowing(4));
+        assertNull(candidates.getFollowing(7));
+
+        // A token put before the set is replaced by it, unless it is excluded from it.
+        candidates = Candidates.builder()
+                .putToken(3, IntLists.of(4, 5))
+                .putToken(7, IntLists.of(8))
+                .putTokenSet(set, excluded)
+                .build();
+        assertTrue(Arrays.equals(IntStream.rangeClosed(1, 10).toArray(), candidates.getTokens()));
+        assertEquals(IntLists.empty(), candidates.getFollowing(3));
+        assertEquals(IntLists.of(8), candidates.getFollowing(7));
+    }
+
+    public void testBuilderLookup() {
+        IntBitSet set = new IntBitSet(Token.EPSILON, 10);
+        set.addRange(2, 4);
+        Candidates.Builder builder = Candidates.builder()
+                .putTokenSet(set, set.emptyCopy())
+                .putToken(3, IntLists.of(1));
+
+        assertTrue(builder.containsToken(2));
+        assertEquals(IntLists.empty(), builder.getToken(2));
+        assertEquals(IntLists.of(1), builder.getToken(3));
+        assertFalse(builder.containsToken(5));
+        assertNull(builder.getToken(5));
+    }
+
+    private CodeCompletionEngine newEngine() {
+        return CodeCompletionEngine.builder(grammar.atn, grammar.getVocabulary(), grammar.getRuleNames())
+                .setIgnoredTokens(str)
+                .build();
+    }
+
+    private int[] userTokensExcept(int... excluded) {
+        return IntStream.rangeClosed(Token.MIN_USER_TOKEN_TYPE, grammar.atn.maxTokenType)
+                .filter(token -> IntStream.of(excluded).noneMatch(e -> e == token))
+                .toArray();
+    }
+
+    private int[] tokenTypes(String input) {
+        CommonTokenStream tokens = new CommonTokenStream(grammar.createLexerInterpreter(new ANTLRInputStream(input)));
+        tokens.fill();
+        return tokens.getTokens().stream()
+                .filter(token -> token.getChannel() == Token.DEFAULT_CHANNEL)
+                .mapToInt(Token::getType)
+                .toArray();
+    }
+
+}
@@ -0,0 +1,87 @@
+package com.albatarm.c3;
+
+import java.util.Arrays;
+
+import org.antlr.v4.runtime.ANTLRInputStream;
+import org.antlr.v4.runtime.CommonTokenStream;
+
+import com.sandy.SandyLexer;
+import com.sandy.SandyParser;
+
+import junit.framework.TestCase;
+
+public class CodeCompletionEngineTest extends TestCase {
+
+    // The caret is at "a", where an ID followed by "=" can be suggested.
+    private static final String INPUT = "var a = 1\n";
+    private static final int CARET = 2;
+
+    private CommonTokenStream tokens;
+    private SandyParser parser;
+
+    @Override
+    protected void setUp() {
+        tokens = new CommonTokenStream(new SandyLexer(new ANTLRInputStream(INPUT)));
+        tokens.fill();
+        parser = new SandyParser(tokens);
+    }
+
+    public void testFollowingTokensOfPlainEngineFirst() {
+        CodeCompletionEngine plain = CodeCompletionEngine.builder(parser).build();
+        assertFollowing(plain, SandyLexer.ASSIGN);
+        CodeCompletionEngine ignoring = CodeCompletionEngine.builder(parser).setIgnoredTokens(SandyLexer.ASSIGN).build();
+        assertFollowing(ignoring);
+    }
+
+    public void testFollowingTokensOfIgnoringEngineFirst() {
+        CodeCompletionEngine ignoring = CodeCompletionEngine.builder(parser).setIgnoredTokens(SandyLexer.ASSIGN).build();
+        assertFollowing(ignoring);
+        CodeCompletionEngine plain = CodeCompletionEngine.builder(parser).build();
+        assertFollowing(plain, SandyLexer.ASSIGN);
+    }
+
+    public void testSessionOverrideMatchesEngine() {
+        CodeCompletionEngine plain = CodeCompletionEngine.builder(parser).build();
+        CodeCompletionEngine ignoring = CodeCompletionEngine.builder(parser).setIgnoredTokens(SandyLexer.ASSIGN).build();
+        CompletionSession session = plain.newSession();
+        assertFollowing(session, SandyLexer.ASSIGN);
+        session.setIgnoredTokens(SandyLexer.ASSIGN);
+        Candidates overridden = session.collectCandidates(tokens, CARET, null);
+        Candidates expected = ignoring.newSession().collectCandidates(tokens, CARET, null);
+        assertEquals(expected.toString(parser.getRuleNames(), parser.getVocabulary()),
+                overridden.toString(parser.getRuleNames(), parser.getVocabulary()));
+        session.resetOverrides();
+        assertFollowing(session, SandyLexer.ASSIGN);
+    }
+
+    public void testTokenStreamReadInPlace() {
+        CodeCompletionEngine engine = CodeCompletionEngine.builder(parser).build();
+        String expected = engine.newSession().collectCandidates(tokens, CARET, null).toString(parser.getRuleNames(), parser.getVocabulary());
+        // Not filled yet, with the hidden whitespace before the caret token.
+        CommonTokenStream lazy = new CommonTokenStream(new SandyLexer(new ANTLRInputStream(INPUT)));
+        Candidates candidates = engine.newSession().collectCandidates(lazy, CARET, null);
+        assertEquals(expected, candidates.toString(parser.getRuleNames(), parser.getVocabulary()));
+        assertEquals(0, lazy.index());
+    }
+
+    public void testCancelledBeforeStart() {
+        CompletionSession session = CodeCompletionEngine.builder(parser).build().newSession();
+        CancellationToken cancellationToken = new CancellationToken();
+        cancellationToken.cancel();
+        session.setCancellationToken(cancellationToken);
+        Candidates candidates = session.collectCandidates(tokens, CARET, null);
+        assertTrue(candidates.isPartial());
+        assertEquals(0, candidates.getStatistics().getStatesProcessed());
+    }
+
+    private void assertFollowing(CodeCompletionEngine engine, int... expected) {
+        assertFollowing(engine.newSession(), expected);
+    }
+
+    private void assertFollowing(CompletionSession session, int... expected) {
+        Candidates candidates = session.collectCandidates(tokens, CARET, null);
+        assertTrue(candidates.containsToken(SandyLexer.ID));
+        assertEquals(Arrays.toString(expected), Arrays.toString(candidates.getFollowing(SandyLexer.ID).toArray()));
+    }
+
+}
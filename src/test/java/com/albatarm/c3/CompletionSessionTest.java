@@ -0,0 +1,320 @@
+package com.albatarm.c3;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.antlr.v4.runtime.ANTLRInputStream;
+import org.antlr.v4.runtime.CommonToken;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.ListTokenSource;
+import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.UnbufferedTokenStream;
+import org.antlr.v4.runtime.atn.ATNState;
+
+import com.albatarm.c3.collection.IntList;
+import com.sandy.SandyLexer;
+import com.sandy.SandyParser;
+
+import junit.framework.TestCase;
+
+public class CompletionSessionTest extends TestCase {
+
+    private static final String INPUT = "var a = 1\nb = ( a + 2 ) * - a\nc = b / 3 - ( 4 )\n";
+    private static final int CUSTOM_CHANNEL = 5;
+
+    private final SandyParser parser = new SandyParser(null);
+    private final CodeCompletionEngine engine = CodeCompletionEngine.builder(parser)
+            .setPreferredRules(SandyParser.RULE_expression)
+            .build();
+    private CommonTokenStream tokens;
+
+    @Override
+    protected void setUp() {
+        tokens = newStream();
+        tokens.fill();
+    }
+
+    private static CommonTokenStream newStream() {
+        return new CommonTokenStream(new SandyLexer(new ANTLRInputStream(INPUT)));
+    }
+
+    private String describe(Candidates candidates) {
+        return candidates.toString(parser.getRuleNames(), parser.getVocabulary());
+    }
+
+    private List<String> expected() {
+        List<String> result = new ArrayList<>();
+        for (int caret = 0; caret < tokens.size(); caret++) {
+            result.add(describe(engine.newSession().collectCandidates(tokens, caret, null)));
+        }
+        return result;
+    }
+
+    public void testCustomChannel() {
+        // The same tokens on another channel, with the whitespace on the default one.
+        List<Token> moved = new ArrayList<>();
+        for (Token token : tokens.getTokens()) {
+            CommonToken copy = new CommonToken(token);
+            copy.setChannel(token.getType() == SandyLexer.WS ? Token.DEFAULT_CHANNEL : CUSTOM_CHANNEL);
+            moved.add(copy);
+        }
+        CommonTokenStream custom = new CommonTokenStream(new ListTokenSource(moved), CUSTOM_CHANNEL);
+        List<String> expected = expected();
+        CompletionSession session = engine.newSession();
+        for (int caret = 0; caret < tokens.size(); caret++) {
+            assertEquals("caret " + caret, expected.get(caret), describe(session.collectCandidates(custom, caret, null)));
+        }
+    }
+
+    public void testUnbufferedStream() {
+        // An unbuffered stream doesn't filter channels, it gets the tokens a parser would see.
+        List<Token> visible = new ArrayList<>();
+        for (Token token : tokens.getTokens()) {
+            if (token.getChannel() == Token.DEFAULT_CHANNEL) {
+                visible.add(new CommonToken(token));
+            }
+        }
+        int[] types = visibleTypes();
+        for (int caret = 0; caret < visible.size(); caret++) {
+            UnbufferedTokenStream<Token> unbuffered = new UnbufferedTokenStream<>(new ListTokenSource(visible));
+            assertEquals("caret " + caret, describe(engine.newSession().collectCandidates(types, caret)),
+                    describe(engine.newSession().collectCandidates(unbuffered, caret, null)));
+        }
+    }
+
+    public void testSharedStreamNotFilled() throws Exception {
+        List<String> expected = expected();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            for (int round = 0; round < 20; round++) {
+                CommonTokenStream shared = newStream();
+                List<Future<Boolean>> results = new ArrayList<>();
+                for (int thread = 0; thread < 4; thread++) {
+                    results.add(executor.submit(() -> {
+                        CompletionSession session = engine.newSession();
+                        for (int caret = expected.size() - 1; caret >= 0; caret--) {
+                            if (!expected.get(caret).equals(describe(session.collectCandidates(shared, caret, null)))) {
+                                return false;
+                            }
+                        }
+                        return true;
+                    }));
+                }
+                for (Future<Boolean> result : results) {
+                    assertTrue(result.get());
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    public void testParallelSameAsSequential() {
+        List<String> expected = expected();
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            CompletionSession session = engine.newSession();
+            session.setParallel(pool);
+            session.setForkThreshold(1);
+            for (int round = 0; round < 5; round++) {
+                for (int caret = 0; caret < tokens.size(); caret++) {
+                    assertEquals("caret " + caret, expected.get(caret), describe(session.collectCandidates(tokens, caret, null)));
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    public void testParallelOverBudget() {
+        int caret = tokens.size() - 1;
+        String expected = describe(engine.newSession().collectCandidates(tokens, caret, null));
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            CompletionSession session = engine.newSession();
+            session.setParallel(pool);
+            session.setForkThreshold(1);
+            session.setStateLimit(50);
+            Candidates partial = session.collectCandidates(tokens, caret, null);
+            assertTrue(partial.isPartial());
+            // The abandoned tasks must not leave anything behind for the next request.
+            session.setStateLimit(0);
+            Candidates full = session.collectCandidates(tokens, caret, null);
+            assertFalse(full.isPartial());
+            assertEquals(expected, describe(full));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    public void testBatchSameAsSingle() {
+        List<String> expected = expected();
+        int[] all = new int[tokens.size()];
+        for (int caret = 0; caret < all.length; caret++) {
+            all[caret] = caret;
+        }
+        List<Candidates> batch = engine.newSession().collectCandidates(tokens, all, null);
+        assertEquals(expected.size(), batch.size());
+        for (int caret = 0; caret < all.length; caret++) {
+            assertEquals("caret " + caret, expected.get(caret), describe(batch.get(caret)));
+        }
+
+        int[] some = { 1, 4, 5, 11, 12, 30 };
+        batch = engine.newSession().collectCandidates(tokens, some, null);
+        for (int i = 0; i < some.length; i++) {
+            assertEquals("caret " + some[i], expected.get(some[i]), describe(batch.get(i)));
+        }
+    }
+
+    public void testBatchOfSliceSameAsSingle() {
+        int[] types = visibleTypes();
+        // The second line, walked from the line rule.
+        int from = 5;
+        assertEquals(SandyLexer.ID, types[from]);
+        int[] carets = new int[types.length - from];
+        for (int i = 0; i < carets.length; i++) {
+            carets[i] = from + i;
+        }
+        List<Candidates> batch = engine.newSession().collectCandidates(types, from, carets, SandyParser.RULE_line);
+        for (int i = 0; i < carets.length; i++) {
+            Candidates single = engine.newSession().collectCandidates(types, from, carets[i], SandyParser.RULE_line);
+            assertEquals("caret " + carets[i], describe(single), describe(batch.get(i)));
+        }
+    }
+
+    private int[] visibleTypes() {
+        return tokens.getTokens().stream()
+                .filter(token -> token.getChannel() == Token.DEFAULT_CHANNEL)
+                .mapToInt(Token::getType)
+                .toArray();
+    }
+
+    public void testIncrementalEditBeforeCaret() {
+        int[] types = visibleTypes();
+        CompletionSession session = newIncrementalSession();
+        int caret = types.length - 2;
+        assertIncremental(session, types, caret);
+        // "b = ( a + 2 )" becomes "b = ( a - 2 )".
+        int[] edited = types.clone();
+        assertEquals(SandyLexer.PLUS, edited[9]);
+        edited[9] = SandyLexer.MINUS;
+        assertIncremental(session, edited, caret);
+        // And an edit on the first line, which most walks depend on.
+        edited[1] = SandyLexer.INTLIT;
+        assertIncremental(session, edited, caret);
+    }
+
+    public void testIncrementalTyping() {
+        int[] types = visibleTypes();
+        CompletionSession session = newIncrementalSession();
+        for (int length = 1; length <= types.length; length++) {
+            int[] prefix = Arrays.copyOf(types, length);
+            prefix[length - 1] = Token.EOF;
+            assertIncremental(session, prefix, length - 1);
+        }
+    }
+
+    public void testIncrementalCaretBackwards() {
+        int[] types = visibleTypes();
+        CompletionSession session = newIncrementalSession();
+        for (int caret = types.length - 1; caret >= 0; caret--) {
+            assertIncremental(session, types, caret);
+        }
+    }
+
+    public void testIncrementalRandomEdits() {
+        // A long input, so the edits near its start leave more dropped memo entries than live ones and the table is
+        // compacted from time to time.
+        int[] line = visibleTypes();
+        int[] types = new int[line.length * 40];
+        for (int i = 0; i < 40; i++) {
+            System.arraycopy(line, 0, types, i * line.length, line.length);
+        }
+        CompletionSession session = newIncrementalSession();
+        Random random = new Random(42);
+        for (int i = 0; i < 60; i++) {
+            int[] edited = types.clone();
+            edited[random.nextInt(line.length)] = line[random.nextInt(line.length - 1)];
+            assertIncremental(session, edited, edited.length - 1 - random.nextInt(line.length));
+        }
+    }
+
+    private CompletionSession newIncrementalSession() {
+        CompletionSession session = engine.newSession();
+        session.setIncremental(true);
+        return session;
+    }
+
+    private void assertIncremental(CompletionSession session, int[] types, int caret) {
+        assertEquals("caret " + caret + " of " + Arrays.toString(types),
+                describe(engine.newSession().collectCandidates(types, caret)), describe(session.collectCandidates(types, caret)));
+    }
+
+    public void testStateLimit() {
+        int caret = tokens.size() - 1;
+        CompletionSession session = engine.newSession();
+        session.setStateLimit(100);
+        Candidates partial = session.collectCandidates(tokens, caret, null);
+        assertTrue(partial.isPartial());
+        assertEquals(100, partial.getStatistics().getStatesProcessed());
+        session.setStateLimit(0);
+        Candidates full = session.collectCandidates(tokens, caret, null);
+        assertFalse(full.isPartial());
+        assertTrue(full.getStatistics().getStatesProcessed() > 100);
+        assertEquals(expected().get(caret), describe(full));
+    }
+
+    public void testTimeLimit() {
+        CompletionSession session = engine.newSession();
+        session.setTimeLimit(50, TimeUnit.MILLISECONDS);
+        // Runs out of time once 200 states are walked.
+        session.setTracer(new CompletionTracer() {
+            private int states;
+
+            @Override
+            public void stateVisited(ATNState state, int tokenIndex, boolean atCaret, IntList callStack) {
+                if (++states == 200) {
+                    try {
+                        Thread.sleep(100);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+        });
+        Candidates partial = session.collectCandidates(tokens, tokens.size() - 1, null);
+        assertTrue(partial.isPartial());
+        assertTrue(partial.getStatistics().getStatesProcessed() >= 200);
+    }
+
+    public void testStoppedWalkLeavesNoMemo() {
+        int[] types = visibleTypes();
+        int caret = types.length - 1;
+        String expected = describe(engine.newSession().collectCandidates(types, caret));
+        for (int limit : new int[] { 1, 7, 50, 300 }) {
+            CompletionSession session = newIncrementalSession();
+            session.setStateLimit(limit);
+            assertTrue(session.collectCandidates(types, caret).isPartial());
+            session.setStateLimit(0);
+            assertEquals("limit " + limit, expected, describe(session.collectCandidates(types, caret)));
+        }
+        // Stopped after an edit, with the memo of a previous request around.
+        CompletionSession session = newIncrementalSession();
+        session.collectCandidates(types, caret);
+        int[] edited = types.clone();
+        edited[9] = SandyLexer.MINUS;
+        session.setStateLimit(5);
+        assertTrue(session.collectCandidates(edited, caret).isPartial());
+        session.setStateLimit(0);
+        assertIncremental(session, edited, caret);
+        assertIncremental(session, types, caret - 3);
+    }
+
+}
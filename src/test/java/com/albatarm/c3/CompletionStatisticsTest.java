@@ -0,0 +1,154 @@
+package com.albatarm.c3;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.antlr.v4.runtime.ANTLRInputStream;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.atn.ATNState;
+
+import com.albatarm.c3.collection.IntList;
+import com.sandy.SandyLexer;
+import com.sandy.SandyParser;
+
+import junit.framework.TestCase;
+
+public class CompletionStatisticsTest extends TestCase {
+
+    private static final String INPUT = "var a = 1\nb = ( a + 2 ) * - a\nc = b / 3 - ( 4 )\n";
+
+    // Counts the walk events behind the statistics, from whatever thread they come.
+    private static class CountingTracer implements CompletionTracer {
+
+        private final AtomicLong states = new AtomicLong();
+        private final AtomicLong rules = new AtomicLong();
+        private final AtomicLong shortcuts = new AtomicLong();
+
+        @Override
+        public void stateVisited(ATNState state, int tokenIndex, boolean atCaret, IntList callStack) {
+            states.incrementAndGet();
+        }
+
+        @Override
+        public void ruleEntered(int ruleIndex, int tokenIndex) {
+            rules.incrementAndGet();
+        }
+
+        @Override
+        public void shortcutTaken(int ruleIndex, int tokenIndex) {
+            shortcuts.incrementAndGet();
+        }
+
+        void reset() {
+            states.set(0);
+            rules.set(0);
+            shortcuts.set(0);
+        }
+
+    }
+
+    private final SandyParser parser = new SandyParser(null);
+    private final List<CompletionStatistics> reports = new ArrayList<>();
+    private final CompletionStatisticsAggregator aggregator = new CompletionStatisticsAggregator();
+    private final CodeCompletionEngine engine = CodeCompletionEngine.builder(parser)
+            .setPreferredRules(SandyParser.RULE_expression)
+            .setListener(statistics -> {
+                reports.add(statistics);
+                aggregator.requestCompleted(statistics);
+            })
+            .build();
+    private CommonTokenStream tokens;
+
+    @Override
+    protected void setUp() {
+        tokens = new CommonTokenStream(new SandyLexer(new ANTLRInputStream(INPUT)));
+        tokens.fill();
+    }
+
+    public void testOneReportPerRequest() {
+        CompletionSession session = engine.newSession();
+        List<Candidates> results = new ArrayList<>();
+        for (int caret = 0; caret < tokens.size(); caret++) {
+            results.add(session.collectCandidates(tokens, caret, null));
+        }
+        // A batch reports each of its requests.
+        int[] carets = { 1, 4, 5, 11, 12 };
+        results.addAll(session.collectCandidates(tokens, carets, null));
+
+        assertEquals(results.size(), reports.size());
+        for (int i = 0; i < results.size(); i++) {
+            assertSame(results.get(i).getStatistics(), reports.get(i));
+        }
+        assertEquals(results.size(), aggregator.getRequests());
+    }
+
+    public void testAggregatorSums() {
+        CompletionSession session = engine.newSession();
+        long states = 0;
+        long hits = 0;
+        long misses = 0;
+        long rules = 0;
+        for (int caret = 0; caret < tokens.size(); caret++) {
+            CompletionStatistics statistics = session.collectCandidates(tokens, caret, null).getStatistics();
+            states += statistics.getStatesProcessed();
+            hits += statistics.getShortcutHits();
+            misses += statistics.getShortcutMisses();
+            rules += statistics.getRulesEntered();
+        }
+        CompletionStatistics total = aggregator.snapshot();
+        assertEquals(states, total.getStatesProcessed());
+        assertEquals(hits, total.getShortcutHits());
+        assertEquals(misses, total.getShortcutMisses());
+        assertEquals(rules, total.getRulesEntered());
+        assertFalse(total.isPartial());
+        assertEquals(0, aggregator.getPartialRequests());
+
+        session.setStateLimit(10);
+        assertTrue(session.collectCandidates(tokens, tokens.size() - 1, null).isPartial());
+        assertEquals(tokens.size() + 1, aggregator.getRequests());
+        assertEquals(1, aggregator.getPartialRequests());
+        assertTrue(aggregator.snapshot().isPartial());
+
+        aggregator.reset();
+        assertEquals(0, aggregator.getRequests());
+        assertEquals(0, aggregator.snapshot().getStatesProcessed());
+        assertFalse(aggregator.snapshot().isPartial());
+    }
+
+    public void testSequentialCounts() {
+        CountingTracer tracer = new CountingTracer();
+        CompletionSession session = engine.newSession();
+        session.setTracer(tracer);
+        assertCounts(session, tracer);
+    }
+
+    public void testParallelCountsSummed() {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            CountingTracer tracer = new CountingTracer();
+            CompletionSession session = engine.newSession();
+            session.setTracer(tracer);
+            session.setParallel(pool);
+            session.setForkThreshold(1);
+            // The tasks count on their own sessions, the request reports their sums.
+            assertCounts(session, tracer);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private void assertCounts(CompletionSession session, CountingTracer tracer) {
+        for (int caret = 0; caret < tokens.size(); caret++) {
+            tracer.reset();
+            CompletionStatistics statistics = session.collectCandidates(tokens, caret, null).getStatistics();
+            assertEquals("caret " + caret, tracer.states.get(), statistics.getStatesProcessed());
+            assertEquals("caret " + caret, tracer.rules.get(), statistics.getRulesEntered());
+            assertEquals("caret " + caret, tracer.shortcuts.get(), statistics.getShortcutHits());
+            assertTrue(statistics.getShortcutMisses() >= statistics.getRulesEntered());
+            assertEquals(statistics.getShortcutMisses(), statistics.getFollowSetHits() + statistics.getFollowSetComputations());
+        }
+    }
+
+}
@@ -0,0 +1,52 @@
+package com.albatarm.c3;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Map;
+
+import org.antlr.v4.runtime.atn.ATN;
+
+import com.sandy.SandyParser;
+
+import junit.framework.TestCase;
+
+public class FollowSetsSnapshotTest extends TestCase {
+
+    private final ATN atn = new SandyParser(null).getATN();
+    private Path file;
+
+    @Override
+    protected void setUp() throws IOException {
+        file = Files.createTempFile("follow-sets", ".bin");
+        CodeCompletionEngine.builder(new SandyParser(null)).build().writeFollowSets(file);
+    }
+
+    @Override
+    protected void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    public void testRead() throws IOException {
+        Map<Integer, FollowSetsHolder> followSets = FollowSetsSnapshot.read(file, atn);
+        assertEquals(atn.ruleToStartState.length, followSets.size());
+        for (FollowSetsHolder holder : followSets.values()) {
+            assertNull(holder.getPredicateScope());
+        }
+    }
+
+    public void testTruncated() throws IOException {
+        byte[] bytes = Files.readAllBytes(file);
+        for (int length : new int[] { 2, 10, bytes.length / 2, bytes.length - 1 }) {
+            Files.write(file, Arrays.copyOf(bytes, length));
+            try {
+                FollowSetsSnapshot.read(file, atn);
+                fail("Read a snapshot truncated to " + length + " bytes");
+            } catch (IOException e) {
+                // Expected.
+            }
+        }
+    }
+
+}
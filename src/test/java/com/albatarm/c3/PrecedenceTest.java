@@ -0,0 +1,117 @@
+package com.albatarm.c3;
+
+import org.antlr.v4.runtime.ANTLRInputStream;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.atn.ATN;
+import org.antlr.v4.runtime.atn.ATNDeserializer;
+import org.antlr.v4.runtime.atn.ATNState;
+import org.antlr.v4.runtime.atn.EpsilonTransition;
+import org.antlr.v4.runtime.atn.Transition;
+import org.antlr.v4.tool.Grammar;
+
+import com.sandy.SandyLexer;
+import com.sandy.SandyParser;
+
+import junit.framework.TestCase;
+
+public class PrecedenceTest extends TestCase {
+
+    // A grammar with a left-recursive expression rule, which ANTLR rewrites with precedence predicates.
+    private static final String GRAMMAR_TEXT = "grammar Expr;\n"
+            + "root : stat+ ;\n"
+            + "stat : expr ';' | 'print' expr ';' ;\n"
+            + "expr : expr '*' expr | expr '+' expr | '(' expr ')' | ID | NUM | call ;\n"
+            + "call : ID '.' ID ;\n"
+            + "ID : [a-z]+ ;\n"
+            + "NUM : [0-9]+ ;\n"
+            + "WS : [ \\t\\r\\n]+ -> channel(HIDDEN) ;\n";
+
+    private static final String[] INPUTS = {
+        "a + b * c ;",
+        "( a + b ) * c + d * ( e + f * g ) ;",
+        "print x . y + 1 ; a * b . c ;",
+        "a + b + c + d + e + f + g + h + i + j + k ;",
+    };
+
+    public void testPrecedenceCutsStates() {
+        Grammar grammar = newGrammar();
+        CodeCompletionEngine engine = newEngine(grammar, grammar.atn);
+        // The same ATN with the precedence predicates taken as plain epsilon transitions, so every operator level is
+        // walked at every nesting depth.
+        CodeCompletionEngine unfiltered = newEngine(grammar, withoutPrecedence(newGrammar().atn));
+
+        for (String input : INPUTS) {
+            int[] types = tokenTypes(grammar, input);
+            long states = 0;
+            long unfilteredStates = 0;
+            for (int caret = 0; caret < types.length; caret++) {
+                Candidates candidates = engine.newSession().collectCandidates(types, caret);
+                Candidates expected = unfiltered.newSession().collectCandidates(types, caret);
+                assertEquals(input + " caret " + caret, describe(grammar, expected), describe(grammar, candidates));
+                states += candidates.getStatistics().getStatesProcessed();
+                unfilteredStates += expected.getStatistics().getStatesProcessed();
+            }
+            assertTrue(input + ": " + states + " states, " + unfilteredStates + " without precedence",
+                    states < unfilteredStates);
+        }
+    }
+
+    public void testPrecedenceCutsSandyStates() {
+        SandyParser parser = new SandyParser(null);
+        CodeCompletionEngine engine = CodeCompletionEngine.builder(parser).build();
+        // A copy, the ATN of the parser is shared.
+        ATN atn = withoutPrecedence(new ATNDeserializer().deserialize(SandyParser._serializedATN.toCharArray()));
+        CodeCompletionEngine unfiltered = CodeCompletionEngine.builder(atn, parser.getVocabulary(), parser.getRuleNames()).build();
+
+        CommonTokenStream tokens = new CommonTokenStream(new SandyLexer(new ANTLRInputStream("a = 1 * 2 + 3 / 4 - 5 * ( 6 - 7 )\n")));
+        tokens.fill();
+        int caret = tokens.size() - 1;
+        Candidates candidates = engine.newSession().collectCandidates(tokens, caret, null);
+        Candidates expected = unfiltered.newSession().collectCandidates(tokens, caret, null);
+        assertEquals(expected.toString(parser.getRuleNames(), parser.getVocabulary()),
+                candidates.toString(parser.getRuleNames(), parser.getVocabulary()));
+        assertTrue(candidates.getStatistics().getStatesProcessed() < expected.getStatistics().getStatesProcessed());
+    }
+
+    private static Grammar newGrammar() {
+        try {
+            return new Grammar(GRAMMAR_TEXT);
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static CodeCompletionEngine newEngine(Grammar grammar, ATN atn) {
+        return CodeCompletionEngine.builder(atn, grammar.getVocabulary(), grammar.getRuleNames()).build();
+    }
+
+    private static ATN withoutPrecedence(ATN atn) {
+        for (ATNState state : atn.states) {
+            if (state == null) {
+                continue;
+            }
+            for (int i = 0; i < state.getNumberOfTransitions(); i++) {
+                Transition transition = state.transition(i);
+                if (transition.getSerializationType() == Transition.PRECEDENCE) {
+                    state.setTransition(i, new EpsilonTransition(transition.target));
+                }
+            }
+        }
+        return atn;
+    }
+
+    private static int[] tokenTypes(Grammar grammar, String input) {
+        CommonTokenStream tokens = new CommonTokenStream(grammar.createLexerInterpreter(new ANTLRInputStream(input)));
+        tokens.fill();
+        return tokens.getTokens().stream()
+                .filter(token -> token.getChannel() == Token.DEFAULT_CHANNEL)
+                .mapToInt(Token::getType)
+                .toArray();
+    }
+
+    private static String describe(Grammar grammar, Candidates candidates) {
+        return candidates.toString(grammar.getRuleNames(), grammar.getVocabulary());
+    }
+
+}
@@ -0,0 +1,76 @@
+package com.albatarm.c3;
+
+import java.util.Arrays;
+
+import org.antlr.v4.runtime.Token;
+import org.antlr.v4.tool.Grammar;
+
+import junit.framework.TestCase;
+
+public class PredicateScopeTest extends TestCase {
+
+    // The follow sets of the start rule cross the predicate, "a" is only a candidate while it holds.
+    private static final Grammar GRAMMAR = newGrammar("grammar P;\n"
+            + "start : item ;\n"
+            + "item : {flag}? 'a' | 'b' ;\n");
+
+    private boolean flag;
+
+    private static Grammar newGrammar(String text) {
+        try {
+            return new Grammar(text);
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private CodeCompletionEngine newEngine(PredicateScope scope) {
+        return CodeCompletionEngine.builder(GRAMMAR.atn, GRAMMAR.getVocabulary(), GRAMMAR.getRuleNames())
+                .setPredicateEvaluator((ruleIndex, predIndex) -> flag)
+                .setPredicateScope(scope)
+                .build();
+    }
+
+    public void testConfigurationScopeUntilInvalidated() {
+        CodeCompletionEngine engine = newEngine(PredicateScope.CONFIGURATION);
+        CompletionSession session = engine.newSession();
+        flag = true;
+        assertCandidates(session, "'a'", "'b'");
+        flag = false;
+        assertCandidates(session, "'a'", "'b'");
+        session.invalidate();
+        assertCandidates(session, "'b'");
+        // The results and follow sets are kept by the engine, for all of its sessions.
+        flag = true;
+        assertCandidates(engine.newSession(), "'b'");
+        engine.newSession().invalidate();
+        assertCandidates(session, "'a'", "'b'");
+    }
+
+    public void testRequestScopeOncePerRequest() {
+        CompletionSession session = newEngine(PredicateScope.REQUEST).newSession();
+        flag = false;
+        assertCandidates(session, "'b'");
+        flag = true;
+        assertCandidates(session, "'a'", "'b'");
+    }
+
+    public void testPredicatesDontLeakIntoOtherEngines() {
+        flag = false;
+        assertCandidates(newEngine(PredicateScope.CONFIGURATION).newSession(), "'b'");
+        flag = true;
+        assertCandidates(newEngine(PredicateScope.CONFIGURATION).newSession(), "'a'", "'b'");
+        assertCandidates(newEngine(PredicateScope.CONTEXT).newSession(), "'a'", "'b'");
+    }
+
+    private void assertCandidates(CompletionSession session, String... expected) {
+        Candidates candidates = session.collectCandidates(new int[] { Token.EOF }, 0);
+        String[] names = new String[candidates.getTokens().length];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = GRAMMAR.getVocabulary().getDisplayName(candidates.getTokens()[i]);
+        }
+        Arrays.sort(names);
+        assertEquals(Arrays.asList(expected), Arrays.asList(names));
+    }
+
+}
@@ -0,0 +1,171 @@
+package com.albatarm.c3;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Function;
+
+import org.antlr.v4.runtime.ANTLRInputStream;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.Token;
+import org.antlr.v4.tool.Grammar;
+
+import com.albatarm.c3.collection.IntList;
+import com.sandy.SandyLexer;
+import com.sandy.SandyParser;
+
+import junit.framework.TestCase;
+
+public class PreferredRulesTest extends TestCase {
+
+    // The rule candidates with their paths, and how many times a rule was collected, for every caret and set of
+    // preferred rules below. Recorded with the former lookup, which built the whole rule stack for every follow set and
+    // searched all the rule candidates for a duplicate.
+    private static final String EXPECTED_FILE = "src/test/resources/com/albatarm/c3/preferred-rules.txt";
+
+    // Preferred rules reached through several paths, and nested in each other.
+    private static final String GRAMMAR_TEXT = "grammar Pref;\n"
+            + "root : (decl | stat)+ EOF ;\n"
+            + "decl : 'var' name '=' value ';' | 'fun' name '(' params? ')' block ;\n"
+            + "params : name (',' name)* ;\n"
+            + "block : '{' stat* '}' ;\n"
+            + "stat : name '=' value ';' | 'call' call ';' | block ;\n"
+            + "call : name '(' (value (',' value)*)? ')' ;\n"
+            + "value : name | NUM | call ;\n"
+            + "name : ID ;\n"
+            + "ID : [a-z]+ ;\n"
+            + "NUM : [0-9]+ ;\n"
+            + "WS : [ \\t\\r\\n]+ -> channel(HIDDEN) ;\n";
+    private static final String INPUT = "var a = f ( b , c ) ; fun g ( x , y ) { z = 1 ; call h ( ) ; }";
+    private static final String[][] PREFERRED = {
+        { "name" }, { "name", "value" }, { "call", "name" }, { "value" }, { "params", "value" }, { "block", "call" },
+    };
+
+    private static final String SANDY_INPUT = "var a = 1\nb = ( a + 2 ) * - a\nc = b / 3 - ( 4 )\n";
+    private static final String[][] SANDY_PREFERRED = {
+        { "expression" }, { "assignment", "expression" }, { "varDeclaration", "expression" }, { "statement" },
+        { "line", "assignment" },
+    };
+
+    public void testSameAsRecorded() throws IOException {
+        List<String> actual = new ArrayList<>();
+
+        Grammar grammar = newGrammar();
+        int[] types = tokenTypes(grammar, INPUT);
+        for (String[] preferred : PREFERRED) {
+            CodeCompletionEngine engine = CodeCompletionEngine.builder(grammar.atn, grammar.getVocabulary(), grammar.getRuleNames())
+                    .setPreferredRules(ruleIndexes(grammar.getRuleNames(), preferred))
+                    .build();
+            for (int caret = 0; caret < types.length; caret++) {
+                int index = caret;
+                actual.add("Pref " + String.join(",", preferred) + " " + caret + " "
+                        + describe(engine, session -> session.collectCandidates(types, index)));
+            }
+        }
+
+        SandyParser parser = new SandyParser(null);
+        CommonTokenStream tokens = new CommonTokenStream(new SandyLexer(new ANTLRInputStream(SANDY_INPUT)));
+        tokens.fill();
+        for (String[] preferred : SANDY_PREFERRED) {
+            CodeCompletionEngine engine = CodeCompletionEngine.builder(parser)
+                    .setPreferredRules(ruleIndexes(parser.getRuleNames(), preferred))
+                    .build();
+            for (int caret = 0; caret < tokens.size(); caret++) {
+                int index = caret;
+                actual.add("Sandy " + String.join(",", preferred) + " " + caret + " "
+                        + describe(engine, session -> session.collectCandidates(tokens, index, null)));
+            }
+        }
+
+        List<String> expected = Files.readAllLines(Paths.get(EXPECTED_FILE), StandardCharsets.UTF_8);
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i), actual.get(i));
+        }
+    }
+
+    public void testHigherRuleWins() {
+        Grammar grammar = newGrammar();
+        String[] ruleNames = grammar.getRuleNames();
+        int[] types = tokenTypes(grammar, "var a =");
+        int name = grammar.getRule("name").index;
+        int value = grammar.getRule("value").index;
+
+        CodeCompletionEngine engine = CodeCompletionEngine.builder(grammar.atn, grammar.getVocabulary(), ruleNames)
+                .setPreferredRules(name, value)
+                .build();
+        Candidates candidates = engine.newSession().collectCandidates(types, 3);
+        assertTrue(Arrays.equals(new int[] { value }, candidates.getRules()));
+        assertEquals("root/decl", path(ruleNames, candidates.getRulePath(value)));
+        // The call alternative of value leads to name too, the rule is still collected once.
+        assertEquals("1 value=root/decl", describe(engine, session -> session.collectCandidates(types, 3)));
+
+        engine = CodeCompletionEngine.builder(grammar.atn, grammar.getVocabulary(), ruleNames)
+                .setPreferredRules(name)
+                .build();
+        candidates = engine.newSession().collectCandidates(types, 3);
+        assertTrue(Arrays.equals(new int[] { name }, candidates.getRules()));
+        assertEquals("root/decl/value", path(ruleNames, candidates.getRulePath(name)));
+        assertNull(candidates.getRulePath(value));
+    }
+
+    private static Grammar newGrammar() {
+        try {
+            return new Grammar(GRAMMAR_TEXT);
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static int[] ruleIndexes(String[] ruleNames, String[] rules) {
+        return Arrays.stream(rules).mapToInt(rule -> Arrays.asList(ruleNames).indexOf(rule)).toArray();
+    }
+
+    private static int[] tokenTypes(Grammar grammar, String input) {
+        CommonTokenStream tokens = new CommonTokenStream(grammar.createLexerInterpreter(new ANTLRInputStream(input)));
+        tokens.fill();
+        return tokens.getTokens().stream()
+                .filter(token -> token.getChannel() == Token.DEFAULT_CHANNEL)
+                .mapToInt(Token::getType)
+                .toArray();
+    }
+
+    /**
+     * Runs a request on a new session and returns the number of rules collected followed by the rule candidates with
+     * their paths, e.g. "2 name=root/decl value=root/decl".
+     */
+    private static String describe(CodeCompletionEngine engine, Function<CompletionSession, Candidates> request) {
+        CompletionSession session = engine.newSession();
+        int[] collected = new int[1];
+        session.setTracer(new CompletionTracer() {
+            @Override
+            public void ruleCollected(int ruleIndex) {
+                collected[0]++;
+            }
+        });
+        Candidates candidates = request.apply(session);
+
+        String[] ruleNames = engine.getRuleNames();
+        StringBuilder sb = new StringBuilder().append(collected[0]);
+        for (int rule : candidates.getRules()) {
+            sb.append(' ').append(ruleNames[rule]).append('=').append(path(ruleNames, candidates.getRulePath(rule)));
+        }
+        return sb.toString();
+    }
+
+    private static String path(String[] ruleNames, IntList path) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < path.size(); i++) {
+            if (i > 0) {
+                sb.append('/');
+            }
+            sb.append(ruleNames[path.get(i)]);
+        }
+        return sb.toString();
+    }
+
+}
@@ -0,0 +1,72 @@
+package com.albatarm.c3;
+
+import junit.framework.TestCase;
+
+public class ShortcutTableTest extends TestCase {
+
+    private static final int RULES = 4;
+    private static final int TOKENS = 2000;
+
+    private final ShortcutTable table = new ShortcutTable();
+
+    @Override
+    protected void setUp() {
+        table.reset(RULES, TOKENS);
+    }
+
+    private long commit(int rule, int tokenIndex, int reach, int... endPositions) {
+        table.begin(0);
+        for (int position : endPositions) {
+            table.addEndPosition(0, position);
+        }
+        return table.commit(0, rule, tokenIndex, reach);
+    }
+
+    public void testCommit() {
+        long entry = commit(1, 2, 5, 5, 3);
+        assertEquals(entry, table.get(1, 2));
+        assertEquals(2, ShortcutTable.length(entry));
+        assertEquals(3, table.position(ShortcutTable.start(entry)));
+        assertEquals(5, table.position(ShortcutTable.start(entry) + 1));
+        assertEquals(5, table.getReach(1, 2));
+        assertEquals(0, table.get(1, 3));
+        assertEquals(0, table.get(0, 2));
+    }
+
+    public void testRetainBelow() {
+        commit(0, 0, 3, 3);
+        commit(1, 2, 4, 4);
+        commit(2, 4, 9, 9);
+        table.retainBelow(4, RULES, TOKENS);
+        assertTrue(table.get(0, 0) != 0);
+        assertEquals(0, table.get(1, 2));
+        assertEquals(0, table.get(2, 4));
+    }
+
+    public void testReset() {
+        commit(0, 0, 3, 3);
+        commit(3, 7, 9, 9);
+        table.reset(RULES, TOKENS);
+        assertEquals(0, table.get(0, 0));
+        assertEquals(0, table.get(3, 7));
+        assertTrue(commit(3, 7, 8, 8) != 0);
+    }
+
+    public void testCompactedWhenGarbageDominates() {
+        commit(0, 0, 1, 1);
+        // Lots of entries which depend on the last token, dropped by the next retain.
+        for (int i = 1; i < TOKENS - 1; i++) {
+            commit(1 + i % 3, i, TOKENS - 1, i + 1);
+        }
+        table.retainBelow(TOKENS - 1, RULES, TOKENS);
+        assertTrue(table.get(0, 0) != 0);
+        assertEquals(0, table.get(1, 3));
+        // Now the dropped slots dominate, the table starts over, also forgetting the live entry.
+        table.retainBelow(TOKENS - 1, RULES, TOKENS);
+        assertEquals(0, table.get(0, 0));
+        long entry = commit(2, 5, 6, 6);
+        assertEquals(entry, table.get(2, 5));
+        assertEquals(6, table.position(ShortcutTable.start(entry)));
+    }
+
+}
@@ -0,0 +1,9 @@
+grammar Expr;
+root : stat+ ;
+stat : expr ';' | 'print' expr ';' ;
+expr : expr '*' expr | expr '+' expr | '(' expr ')' | ID | NUM | call ;
+call : primary '.' ID ;
+primary : call | ID ;
+ID : [a-z]+ ;
+NUM : [0-9]+ ;
+WS : [ \t\r\n]+ -> channel(HIDDEN) ;